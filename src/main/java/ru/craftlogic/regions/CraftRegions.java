@@ -6,6 +6,7 @@ import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import ru.craftlogic.api.CraftAPI;
 import ru.craftlogic.api.network.AdvancedNetwork;
 import ru.craftlogic.regions.common.ProxyCommon;
@@ -36,4 +37,9 @@ public class CraftRegions {
     public void postInit(FMLPostInitializationEvent event) {
         PROXY.postInit();
     }
+
+    @Mod.EventHandler
+    public void serverStopped(FMLServerStoppedEvent event) {
+        RegionSaver.awaitAll();
+    }
 }
@@ -0,0 +1,102 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Default storage: one file per shard in the configured {@link RegionFormat} plus a binary manifest.
+ */
+public class FileRegionStorage implements RegionStorage {
+    private static final Logger LOGGER = LogManager.getLogger("FileRegionStorage");
+
+    private final WorldRegionManager manager;
+    private final Path dir;
+    private final RegionFormat format;
+
+    public FileRegionStorage(WorldRegionManager manager, Path dir, RegionFormat format) {
+        this.manager = manager;
+        this.dir = dir;
+        this.format = format;
+    }
+
+    @Override
+    public RegionFiles.Header readManifest(Consumer<RegionStub> consumer) throws IOException {
+        Path manifest = dir.resolve(RegionFiles.MANIFEST);
+        return Files.exists(manifest) ? RegionFiles.readManifest(manifest, consumer) : null;
+    }
+
+    /**
+     * Reads a shard in the configured format, falling back to a file left in the other format.
+     */
+    @Override
+    public void readShard(long key, Consumer<Region> consumer) throws IOException {
+        for (RegionFormat f : preferring(format)) {
+            Path file = RegionFiles.shardFile(dir, f, key);
+            if (Files.exists(file)) {
+                RegionFiles.read(f, file, manager, consumer);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void readAll(Consumer<Region> consumer) throws IOException {
+        Set<Long> keys = new LinkedHashSet<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "r.*.*.*")) {
+                for (Path file : stream) {
+                    String[] parts = file.getFileName().toString().split("\\.");
+                    if (parts.length == 4) {
+                        keys.add(RegionStub.shardKey(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+                    }
+                }
+            }
+        }
+        for (long key : keys) {
+            readShard(key, consumer);
+        }
+    }
+
+    @Override
+    public void write(RegionSaver.Snapshot snapshot) throws IOException {
+        Files.createDirectories(dir);
+        for (Long2ObjectMap.Entry<RegionSaver.Shard> entry : snapshot.shards.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            RegionSaver.Shard shard = entry.getValue();
+            Map<UUID, RegionState> states = new LinkedHashMap<>(shard.loaded);
+            readShard(key, region -> {
+                if (shard.keep.contains(region.getId()) && !states.containsKey(region.getId())) {
+                    states.put(region.getId(), new RegionState(region));
+                }
+            });
+            for (RegionFormat f : RegionFormat.values()) {
+                if (f != format || states.isEmpty()) {
+                    Files.deleteIfExists(RegionFiles.shardFile(dir, f, key));
+                }
+            }
+            if (!states.isEmpty()) {
+                RegionFiles.write(format, RegionFiles.shardFile(dir, format, key), true, snapshot.sequence, states.values());
+            }
+        }
+        if (snapshot.manifest != null) {
+            RegionFiles.writeManifest(dir.resolve(RegionFiles.MANIFEST), snapshot.enabled, snapshot.sequence, snapshot.manifest);
+        }
+        LOGGER.info("Saved {} region shards to {}", snapshot.shards.size(), dir);
+    }
+
+    private static List<RegionFormat> preferring(RegionFormat format) {
+        List<RegionFormat> result = new ArrayList<>(Arrays.asList(RegionFormat.values()));
+        result.remove(format);
+        result.add(0, format);
+        return result;
+    }
+}
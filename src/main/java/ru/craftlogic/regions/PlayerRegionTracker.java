@@ -0,0 +1,198 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import ru.craftlogic.api.world.Player;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+import ru.craftlogic.regions.network.message.MessageDeleteRegion;
+import ru.craftlogic.regions.network.message.MessageRegions;
+
+import java.util.*;
+
+public class PlayerRegionTracker {
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private WorldRegionManager world;
+    private int indexRevision;
+    private int blockX, blockZ;
+    private Region region;
+    private Region announced;
+    private WorldRegionManager watchedWorld;
+    private final LongSet watchedChunks = new LongOpenHashSet();
+    private final Object2IntMap<UUID> watchedRegions = new Object2IntOpenHashMap<>();
+    private final Object2IntMap<UUID> syncedRevisions = new Object2IntOpenHashMap<>();
+    private final Map<UUID, Region> pending = new LinkedHashMap<>();
+    private EntityPlayerMP pendingPlayer;
+
+    public PlayerRegionTracker() {
+        syncedRevisions.defaultReturnValue(-1);
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    /**
+     * Re-resolves the player's region only if the player changed block column or world,
+     * or regions of that world were created or deleted since the last lookup.
+     */
+    Region update(RegionManager regionManager, EntityPlayer player) {
+        WorldRegionManager world = regionManager.dimensions.get(player.world.provider.getDimension());
+        int x = MathHelper.floor(player.posX);
+        int z = MathHelper.floor(player.posZ);
+        if (world != this.world || x != blockX || z != blockZ || world != null && world.indexRevision != indexRevision) {
+            this.world = world;
+            this.blockX = x;
+            this.blockZ = z;
+            this.indexRevision = world != null ? world.indexRevision : 0;
+            this.region = world != null ? world.getRegion(x, z) : null;
+        }
+        return region;
+    }
+
+    /**
+     * Remembers the region whose owner was last announced to the player and returns whether it changed. Kept apart from
+     * the lookup cache, which other handlers may already have refreshed earlier in the tick.
+     */
+    boolean announce(Region region) {
+        if (region == announced) {
+            return false;
+        }
+        announced = region;
+        return true;
+    }
+
+    /**
+     * Called when the client starts watching a chunk. Regions overlapping it become visible and get sent
+     * unless the client already holds their current revision.
+     */
+    void watchChunk(EntityPlayerMP player, WorldRegionManager world, int chunkX, int chunkZ) {
+        if (world != watchedWorld) {
+            watchedWorld = world;
+            watchedChunks.clear();
+            watchedRegions.clear();
+            syncedRevisions.clear();
+            pending.clear();
+        }
+        if (world != null && watchedChunks.add(ChunkPos.asLong(chunkX, chunkZ))) {
+            for (Region region : world.getRegionsInChunk(chunkX, chunkZ)) {
+                UUID id = region.getId();
+                if (watchedRegions.put(id, watchedRegions.getInt(id) + 1) == 0) {
+                    send(player, region);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when the client stops watching a chunk. Regions with no watched chunk left are dropped on the client.
+     */
+    void unwatchChunk(EntityPlayerMP player, int chunkX, int chunkZ) {
+        if (watchedWorld != null && watchedChunks.remove(ChunkPos.asLong(chunkX, chunkZ))) {
+            for (Region region : watchedWorld.getRegionsInChunk(chunkX, chunkZ)) {
+                UUID id = region.getId();
+                int count = watchedRegions.getInt(id) - 1;
+                if (count > 0) {
+                    watchedRegions.put(id, count);
+                } else {
+                    watchedRegions.removeInt(id);
+                    pending.remove(id);
+                    if (syncedRevisions.removeInt(id) != -1) {
+                        Player.from(player).sendPacket(new MessageDeleteRegion(id));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Resends a created or changed region if the client watches any of its chunks.
+     */
+    void regionChanged(EntityPlayerMP player, Region region) {
+        if (region.getManager() != watchedWorld) {
+            return;
+        }
+        UUID id = region.getId();
+        if (!watchedRegions.containsKey(id)) {
+            int count = countWatchedChunks(region);
+            if (count == 0) {
+                return;
+            }
+            watchedRegions.put(id, count);
+        }
+        send(player, region);
+    }
+
+    void forget(UUID id) {
+        watchedRegions.removeInt(id);
+        syncedRevisions.removeInt(id);
+        pending.remove(id);
+        if (announced != null && announced.getId().equals(id)) {
+            announced = null;
+        }
+    }
+
+    /**
+     * Sends all regions queued during this tick in as few packets as possible.
+     */
+    void flush() {
+        if (!pending.isEmpty()) {
+            Player player = Player.from(pendingPlayer);
+            List<Region> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH_SIZE));
+            for (Region region : pending.values()) {
+                batch.add(region);
+                if (batch.size() == MAX_BATCH_SIZE) {
+                    player.sendPacket(new MessageRegions(region.getStart().getDimensionId(), batch));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                player.sendPacket(new MessageRegions(batch.get(0).getStart().getDimensionId(), batch));
+            }
+            pending.clear();
+        }
+        pendingPlayer = null;
+    }
+
+    private void send(EntityPlayerMP player, Region region) {
+        if (syncedRevisions.getInt(region.getId()) != region.getRevision()) {
+            syncedRevisions.put(region.getId(), region.getRevision());
+            pending.put(region.getId(), region);
+            pendingPlayer = player;
+        }
+    }
+
+    private int countWatchedChunks(Region region) {
+        int startX = region.getMinX() >> 4;
+        int startZ = region.getMinZ() >> 4;
+        int endX = region.getMaxX() >> 4;
+        int endZ = region.getMaxZ() >> 4;
+        int count = 0;
+        if ((long) (endX - startX + 1) * (endZ - startZ + 1) <= watchedChunks.size()) {
+            for (int cx = startX; cx <= endX; cx++) {
+                for (int cz = startZ; cz <= endZ; cz++) {
+                    if (watchedChunks.contains(ChunkPos.asLong(cx, cz))) {
+                        count++;
+                    }
+                }
+            }
+        } else {
+            for (LongIterator it = watchedChunks.iterator(); it.hasNext(); ) {
+                long key = it.nextLong();
+                int cx = (int) key;
+                int cz = (int) (key >> 32);
+                if (cx >= startX && cx <= endX && cz >= startZ && cz <= endZ) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,180 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.util.ResourceLocation;
+import ru.craftlogic.api.world.Location;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Layout of binary region files ({@code regions.dat} and shards): a header (magic, version, enabled flag, journal sequence,
+ * flag names, region count) followed by fixed-width records. UUIDs are stored as two longs, coordinates as ints, flags and
+ * member abilities as bitmasks. Flag bits follow the order of the names in the header, so files survive flags being
+ * registered or removed. Only item restrictions and flag names are variable-length (length-prefixed UTF-8).
+ */
+public class RegionBinaryFormat {
+    private static final int MAGIC = 0x52474E44;
+    private static final int MANIFEST_MAGIC = 0x52474E4D;
+    private static final int VERSION = 2;
+    private static final int MANIFEST_VERSION = 1;
+
+    /**
+     * Version 1 files had no flag table, their short bitmask used the built-in flags in registration order.
+     */
+    private static final String[] V1_FLAGS = {
+        "pvp", "restrictCommands", "explosions", "projectiles", "protectingHostiles",
+        "preventingAnimalAttacks", "preventingMobAttacks", "mobSpawn", "fallDamage", "teleportSpawn"
+    };
+
+    public static void write(DataOutputStream out, boolean enabled, long sequence, Collection<RegionState> regions) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(enabled);
+        out.writeLong(sequence);
+        List<RegionFlag> flags = RegionFlag.values();
+        out.writeByte(flags.size());
+        for (RegionFlag flag : flags) {
+            writeString(out, flag.getName());
+        }
+        out.writeInt(regions.size());
+        for (RegionState region : regions) {
+            writeUUID(out, region.id);
+            writeUUID(out, region.owner);
+            out.writeInt(region.start.getBlockX());
+            out.writeInt(region.start.getBlockY());
+            out.writeInt(region.start.getBlockZ());
+            out.writeInt(region.end.getBlockX());
+            out.writeInt(region.end.getBlockY());
+            out.writeInt(region.end.getBlockZ());
+            out.writeLong(region.flags);
+            out.writeInt(region.members.size());
+            for (Object2IntMap.Entry<UUID> member : region.members.object2IntEntrySet()) {
+                writeUUID(out, member.getKey());
+                out.writeInt(member.getIntValue());
+            }
+            out.writeInt(region.rightClickItemUsage.size());
+            for (ResourceLocation item : region.rightClickItemUsage) {
+                writeString(out, item.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads all regions from {@code buf} into {@code consumer}. Does not touch the manager's state.
+     */
+    public static RegionFiles.Header read(ByteBuffer buf, WorldRegionManager manager, int dimension, Consumer<Region> consumer) throws IOException {
+        int version = checkHeader(buf, MAGIC, VERSION);
+        boolean enabled = buf.get() != 0;
+        long sequence = buf.getLong();
+        String[] names = V1_FLAGS;
+        if (version > 1) {
+            names = new String[buf.get() & 0xFF];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(buf);
+            }
+        }
+        RegionFlag[] table = new RegionFlag[names.length];
+        long defaults = RegionFlag.getDefaults();
+        for (int i = 0; i < names.length; i++) {
+            table[i] = RegionFlag.byName(names[i]);
+            if (table[i] != null) {
+                defaults = table[i].set(defaults, false);
+            }
+        }
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            UUID id = readUUID(buf);
+            UUID owner = readUUID(buf);
+            Location start = new Location(dimension, buf.getInt(), buf.getInt(), buf.getInt());
+            Location end = new Location(dimension, buf.getInt(), buf.getInt(), buf.getInt());
+            long stored = version > 1 ? buf.getLong() : buf.getShort();
+            long flags = defaults;
+            for (int j = 0; j < table.length; j++) {
+                if (table[j] != null && (stored & (1L << j)) != 0) {
+                    flags |= table[j].getMask();
+                }
+            }
+            int memberCount = buf.getInt();
+            Object2IntMap<UUID> members = new Object2IntOpenHashMap<>(memberCount);
+            for (int j = 0; j < memberCount; j++) {
+                members.put(WorldRegionManager.internPlayer(readUUID(buf)), buf.getInt());
+            }
+            int itemCount = buf.getInt();
+            Set<ResourceLocation> items = new HashSet<>(itemCount);
+            for (int j = 0; j < itemCount; j++) {
+                items.add(new ResourceLocation(readString(buf)));
+            }
+            consumer.accept(manager.new Region(id, owner, start, end, flags, items, members));
+        }
+        return new RegionFiles.Header(enabled, sequence);
+    }
+
+    /**
+     * The manifest lists every region of a world with its owner and bounds, see {@link RegionStub}.
+     */
+    public static void writeManifest(DataOutputStream out, boolean enabled, long sequence, Collection<RegionStub> stubs) throws IOException {
+        out.writeInt(MANIFEST_MAGIC);
+        out.writeInt(MANIFEST_VERSION);
+        out.writeBoolean(enabled);
+        out.writeLong(sequence);
+        out.writeInt(stubs.size());
+        for (RegionStub stub : stubs) {
+            writeUUID(out, stub.id);
+            writeUUID(out, stub.owner);
+            out.writeInt(stub.minX);
+            out.writeInt(stub.minZ);
+            out.writeInt(stub.maxX);
+            out.writeInt(stub.maxZ);
+        }
+    }
+
+    public static RegionFiles.Header readManifest(ByteBuffer buf, Consumer<RegionStub> consumer) throws IOException {
+        checkHeader(buf, MANIFEST_MAGIC, MANIFEST_VERSION);
+        boolean enabled = buf.get() != 0;
+        long sequence = buf.getLong();
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            consumer.accept(new RegionStub(readUUID(buf), readUUID(buf), buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()));
+        }
+        return new RegionFiles.Header(enabled, sequence);
+    }
+
+    private static int checkHeader(ByteBuffer buf, int magic, int maxVersion) throws IOException {
+        if (buf.getInt() != magic) {
+            throw new IOException("Not a region file");
+        }
+        int version = buf.getInt();
+        if (version < 1 || version > maxVersion) {
+            throw new IOException("Unsupported region file version " + version);
+        }
+        return version;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(ByteBuffer buf) {
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+}
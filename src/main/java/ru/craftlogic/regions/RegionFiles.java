@@ -0,0 +1,103 @@
+package ru.craftlogic.regions;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes region files in either {@link RegionFormat}: whole-world snapshots, shards and exports.
+ * Nothing here touches live manager state, so all of it may run on the I/O thread.
+ */
+public class RegionFiles {
+    public static final String MANIFEST = "manifest.dat";
+
+    public static Path shardFile(Path dir, RegionFormat format, long key) {
+        String extension = format.fileName.substring(format.fileName.lastIndexOf('.'));
+        return dir.resolve("r." + RegionStub.shardX(key) + "." + RegionStub.shardZ(key) + extension);
+    }
+
+    public static Header read(RegionFormat format, Path file, WorldRegionManager manager, Consumer<Region> consumer) throws IOException {
+        if (format == RegionFormat.BINARY) {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            return RegionBinaryFormat.read(buf, manager, manager.getDimensionId(), consumer);
+        }
+        boolean enabled = true;
+        long sequence = 0;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "enabled":
+                        enabled = reader.nextBoolean();
+                        break;
+                    case "journal":
+                        sequence = reader.nextLong();
+                        break;
+                    default:
+                        consumer.accept(manager.readRegion(UUID.fromString(name), reader));
+                }
+            }
+            reader.endObject();
+        }
+        return new Header(enabled, sequence);
+    }
+
+    public static void write(RegionFormat format, Path file, boolean enabled, long sequence, Collection<RegionState> regions) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (format == RegionFormat.BINARY) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                RegionBinaryFormat.write(out, enabled, sequence, regions);
+            }
+        } else {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+                 JsonWriter writer = new JsonWriter(out)) {
+                writer.setIndent("  ");
+                writer.beginObject();
+                writer.name("enabled").value(enabled);
+                writer.name("journal").value(sequence);
+                for (RegionState region : regions) {
+                    writer.name(region.id.toString());
+                    region.write(writer);
+                }
+                writer.endObject();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Header readManifest(Path file, Consumer<RegionStub> consumer) throws IOException {
+        return RegionBinaryFormat.readManifest(ByteBuffer.wrap(Files.readAllBytes(file)), consumer);
+    }
+
+    public static void writeManifest(Path file, boolean enabled, long sequence, Collection<RegionStub> stubs) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            RegionBinaryFormat.writeManifest(out, enabled, sequence, stubs);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static final class Header {
+        public final boolean enabled;
+        public final long sequence;
+
+        public Header(boolean enabled, long sequence) {
+            this.enabled = enabled;
+            this.sequence = sequence;
+        }
+    }
+}
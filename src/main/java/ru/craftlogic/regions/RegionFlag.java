@@ -0,0 +1,137 @@
+package ru.craftlogic.regions;
+
+import java.util.*;
+
+/**
+ * A boolean region setting. Every flag takes one bit of {@link WorldRegionManager.Region#getFlags()}, in registration order,
+ * so at most 64 flags can exist. Other mods may register their own flags during initialization, before any world loads;
+ * the registration order must be the same on server and client.
+ */
+public final class RegionFlag {
+    private static final List<RegionFlag> FLAGS = new ArrayList<>();
+    private static final Map<String, RegionFlag> BY_NAME = new HashMap<>();
+    private static final Map<String, RegionFlag> BY_COMMAND = new HashMap<>();
+    private static long defaultMask, syncedMask;
+
+    public static final RegionFlag PVP = register("pvp", "pvp", false, true, true);
+    public static final RegionFlag RESTRICT_COMMANDS = register("restrictCommands", "commands", false, true, false);
+    public static final RegionFlag EXPLOSIONS = register("explosions", "explosions", false, true, false);
+    public static final RegionFlag PROJECTILES = register("projectiles", "projectiles", false, true, false);
+    public static final RegionFlag PROTECTING_HOSTILES = register("protectingHostiles", "hostiles", false, true, false);
+    public static final RegionFlag PREVENTING_ANIMAL_ATTACKS = register("preventingAnimalAttacks", "animal_attacks", true, false, false);
+    public static final RegionFlag PREVENTING_MOB_ATTACKS = register("preventingMobAttacks", "mob_attacks", false, false, false);
+    public static final RegionFlag MOB_SPAWN = register("mobSpawn", "mob_spawn", true, true, false);
+    public static final RegionFlag FALL_DAMAGE = register("fallDamage", "fall_damage", true, true, false);
+    public static final RegionFlag TELEPORT_SPAWN = register("teleportSpawn", "teleport_spawn", false, true, false);
+
+    private final String name;
+    private final String command;
+    private final boolean defaultValue;
+    private final boolean negative;
+    private final boolean synced;
+    private final int id;
+    private final long mask;
+
+    private RegionFlag(String name, String command, boolean defaultValue, boolean negative, boolean synced, int id) {
+        this.name = name;
+        this.command = command;
+        this.defaultValue = defaultValue;
+        this.negative = negative;
+        this.synced = synced;
+        this.id = id;
+        this.mask = 1L << id;
+    }
+
+    /**
+     * @param name key in region files
+     * @param command argument of {@code /region <command> [on|off]}, also used for its permission and messages
+     * @param negative whether enabling the flag weakens protection, which is shown in the command feedback
+     * @param synced whether clients receive the flag along with the region outline
+     */
+    public static synchronized RegionFlag register(String name, String command, boolean defaultValue, boolean negative, boolean synced) {
+        if (FLAGS.size() == Long.SIZE) {
+            throw new IllegalStateException("Too many region flags");
+        }
+        if (BY_NAME.containsKey(name) || BY_COMMAND.containsKey(command)) {
+            throw new IllegalArgumentException("Region flag " + name + " is already registered");
+        }
+        RegionFlag flag = new RegionFlag(name, command, defaultValue, negative, synced, FLAGS.size());
+        FLAGS.add(flag);
+        BY_NAME.put(name, flag);
+        BY_COMMAND.put(command, flag);
+        if (defaultValue) {
+            defaultMask |= flag.mask;
+        }
+        if (synced) {
+            syncedMask |= flag.mask;
+        }
+        return flag;
+    }
+
+    public static List<RegionFlag> values() {
+        return Collections.unmodifiableList(FLAGS);
+    }
+
+    public static RegionFlag byName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    public static RegionFlag byCommand(String command) {
+        return BY_COMMAND.get(command);
+    }
+
+    /**
+     * Flags of a newly created region.
+     */
+    public static long getDefaults() {
+        return defaultMask;
+    }
+
+    /**
+     * Mask of the flags sent to clients.
+     */
+    public static long getSynced() {
+        return syncedMask;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public boolean getDefault() {
+        return defaultValue;
+    }
+
+    public boolean isNegative() {
+        return negative;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    public boolean get(long flags) {
+        return (flags & mask) != 0;
+    }
+
+    public long set(long flags, boolean value) {
+        return value ? flags | mask : flags & ~mask;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.craftlogic.regions;
+
+/**
+ * On-disk layouts of a world's region snapshot. The journal is always JSON lines.
+ */
+public enum RegionFormat {
+    JSON("regions.json"),
+    BINARY("regions.dat");
+
+    public final String fileName;
+
+    RegionFormat(String fileName) {
+        this.fileName = fileName;
+    }
+}
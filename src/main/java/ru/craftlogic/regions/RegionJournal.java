@@ -0,0 +1,218 @@
+package ru.craftlogic.regions;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only log of region mutations kept next to a world's region snapshot.
+ * Every entry carries a sequence number; the snapshot stores the last sequence it includes,
+ * so replay after loading it only applies newer entries.
+ */
+public class RegionJournal {
+    private static final Logger LOGGER = LogManager.getLogger("RegionJournal");
+
+    private final Path file;
+    private Writer writer;
+    private long sequence;
+    private int size;
+
+    public RegionJournal(Path dir) {
+        this.file = dir.resolve("regions.journal");
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Number of entries appended since the last rotation.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Feeds every entry newer than {@code after} to the handler, oldest first.
+     */
+    public void replay(long after, Handler handler) throws IOException {
+        this.sequence = after;
+        this.size = 0;
+        for (Path segment : listSegments()) {
+            replay(segment, after, handler);
+        }
+        replay(file, after, handler);
+    }
+
+    private void replay(Path path, long after, Handler handler) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (BufferedReader lines = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    JsonReader reader = new JsonReader(new StringReader(line));
+                    reader.beginObject();
+                    long seq = readLong(reader, "seq");
+                    sequence = Math.max(sequence, seq);
+                    if (seq > after) {
+                        String op = readString(reader, "op");
+                        UUID id = UUID.fromString(readString(reader, "id"));
+                        if (op.equals("update")) {
+                            reader.nextName();
+                            handler.update(id, reader);
+                        } else {
+                            handler.delete(id);
+                        }
+                        size++;
+                    }
+                } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+                    LOGGER.warn("Skipping damaged journal entry in {}: {}", path, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static long readLong(JsonReader reader, String name) throws IOException {
+        expectName(reader, name);
+        return reader.nextLong();
+    }
+
+    private static String readString(JsonReader reader, String name) throws IOException {
+        expectName(reader, name);
+        return reader.nextString();
+    }
+
+    private static void expectName(JsonReader reader, String name) throws IOException {
+        String actual = reader.nextName();
+        if (!actual.equals(name)) {
+            throw new IOException("Expected " + name + " but found " + actual);
+        }
+    }
+
+    /**
+     * Entries are written as {@code {"seq", "op", "id", "region"}} in that order, so replay can skip
+     * covered entries after the first field and hand the region body to the handler as a stream.
+     * Returns {@code false} if the entry could not be written; the caller then has to get the change into the next snapshot.
+     */
+    public boolean appendUpdate(RegionState region) {
+        return append(region.id, "update", region);
+    }
+
+    public boolean appendDelete(UUID id) {
+        return append(id, "delete", null);
+    }
+
+    private boolean append(UUID id, String op, RegionState region) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            JsonWriter json = new JsonWriter(writer);
+            json.beginObject();
+            json.name("seq").value(++sequence);
+            json.name("op").value(op);
+            json.name("id").value(id.toString());
+            if (region != null) {
+                json.name("region");
+                region.write(json);
+            }
+            json.endObject();
+            writer.write('\n');
+            writer.flush();
+            size++;
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Failed to append to " + file, e);
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Closes the current journal file as a finished segment, so that the snapshot taken at the current sequence
+     * can later drop it with {@link #truncate(long)}. New entries go to a fresh file.
+     */
+    public void rotate() throws IOException {
+        close();
+        if (Files.exists(file)) {
+            Files.move(file, segment(sequence), StandardCopyOption.REPLACE_EXISTING);
+        }
+        size = 0;
+    }
+
+    /**
+     * Deletes the finished segments whose entries are all covered by a snapshot at {@code sequence}.
+     * Called from the I/O thread once that snapshot is on disk.
+     */
+    public void truncate(long sequence) throws IOException {
+        for (Path segment : listSegments()) {
+            if (segmentSequence(segment) <= sequence) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    private Path segment(long sequence) {
+        return file.resolveSibling(file.getFileName() + "." + sequence);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), file.getFileName() + ".*")) {
+            for (Path path : stream) {
+                if (segmentSequence(path) >= 0) {
+                    result.add(path);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(RegionJournal::segmentSequence));
+        return result;
+    }
+
+    private static long segmentSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close " + file, e);
+            }
+            writer = null;
+        }
+    }
+
+    public interface Handler {
+        void update(UUID id, JsonReader region) throws IOException;
+
+        void delete(UUID id);
+    }
+}
@@ -1,10 +1,13 @@
 package ru.craftlogic.regions;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.mojang.authlib.GameProfile;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.minecraft.block.*;
 import net.minecraft.block.material.Material;
 import net.minecraft.command.CommandException;
@@ -25,12 +28,16 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.network.play.server.SPacketBlockChange;
 import net.minecraft.util.*;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3i;
 import net.minecraft.util.math.RayTraceResult;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextComponentTranslation;
 import net.minecraft.world.Explosion;
 import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.util.FakePlayer;
 import net.minecraftforge.event.CommandEvent;
 import net.minecraftforge.event.entity.ProjectileImpactEvent;
 import net.minecraftforge.event.entity.living.*;
@@ -39,13 +46,17 @@ import net.minecraftforge.event.entity.player.FillBucketEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
 import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.ChunkWatchEvent;
 import net.minecraftforge.event.world.ExplosionEvent;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.Optional;
 import net.minecraftforge.fml.common.eventhandler.Event;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedInEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedOutEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.relauncher.Side;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.craftlogic.api.CraftAPI;
@@ -55,11 +66,8 @@ import ru.craftlogic.api.event.block.FarmlandTrampleEvent;
 import ru.craftlogic.api.event.block.FluidFlowEvent;
 import ru.craftlogic.api.event.block.PistonCheckCanMoveEvent;
 import ru.craftlogic.api.event.player.*;
-import ru.craftlogic.api.math.Bounding;
-import ru.craftlogic.api.math.BoxBounding;
 import ru.craftlogic.api.server.PlayerManager;
 import ru.craftlogic.api.server.Server;
-import ru.craftlogic.api.server.WorldManager;
 import ru.craftlogic.api.text.Text;
 import ru.craftlogic.api.util.ConfigurableManager;
 import ru.craftlogic.api.world.*;
@@ -73,28 +81,42 @@ import ru.craftlogic.regions.common.command.CommandWand;
 import ru.craftlogic.regions.common.event.RegionPvpStatusEvent;
 import ru.craftlogic.regions.network.message.MessageConfiguration;
 import ru.craftlogic.regions.network.message.MessageOverride;
-import ru.craftlogic.regions.network.message.MessageRegion;
 import ru.craftlogic.warps.event.PlayerWarpEvent;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class RegionManager extends ConfigurableManager {
     private static final Logger LOGGER = LogManager.getLogger("RegionManager");
-    private static final int SYNC_COOLDOWN = 10 * 20;
+    private static final ExecutorService LOADERS = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), r -> {
+        Thread thread = new Thread(r, "Region Loader");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static final GameProfile MINECRAFT = new GameProfile(UUID.fromString("41C82C87-7AfB-4024-BA57-13D2C99CAE77"), "[Minecraft]");
     final Map<String, WorldRegionManager> managers = new HashMap<>();
+    final Int2ObjectMap<WorldRegionManager> dimensions = new Int2ObjectOpenHashMap<>();
+    private final Map<Integer, WorldRegionManager> snapshotSources = new ConcurrentHashMap<>();
+    final Map<UUID, Region> regionsById = new HashMap<>();
+    private final Map<UUID, PlayerRegionTracker> trackers = new HashMap<>();
     public Set<ResourceLocation> whitelistBlockUsage = new HashSet<>();
     public Set<ResourceLocation> blacklistItemUsage = new HashSet<>();
     public Set<ResourceLocation> whitelistBlockBreakage = new HashSet<>();
     public Set<ResourceLocation> chests = new HashSet<>();
     public Set<ResourceLocation> doors = new HashSet<>();
-    private int updateCounter;
-    private boolean loaded;
+    private final Map<WorldRegionManager, Future<WorldRegionManager.Loader>> pendingLoads = new LinkedHashMap<>();
+    private boolean loaded, ticking;
     private boolean defaultPvP;
+    private RegionFormat storageFormat = RegionFormat.JSON;
+    private String storageUrl = "";
     private boolean omitRegionSave = false;
 
     public RegionManager(Server server, Path settingsDirectory) {
@@ -118,6 +140,9 @@ public class RegionManager extends ConfigurableManager {
         commandManager.registerCommand(new CommandRegion());
         commandManager.registerCommand(new CommandWand());
         commandManager.registerCommand(new CommandRegions());
+        commandManager.registerArgumentType("RegionFlag", false, ctx ->
+            RegionFlag.values().stream().map(RegionFlag::getCommand).collect(Collectors.toList())
+        );
         commandManager.registerArgumentType("Region", false, ctx -> {
             RegionManager regionManager = ctx.server().getManager(RegionManager.class);
             CommandSender sender = ctx.sender();
@@ -151,6 +176,8 @@ public class RegionManager extends ConfigurableManager {
     public void load(JsonObject config) {
         loaded = true;
         defaultPvP = JsonUtils.getBoolean(config, "default-pvp", false);
+        storageFormat = RegionFormat.valueOf(JsonUtils.getString(config, "storage-format", "json").toUpperCase());
+        storageUrl = JsonUtils.getString(config, "storage-jdbc-url", "");
 
         readResourceLocations(whitelistBlockUsage, config, "block_usage_whitelist");
         readResourceLocations(blacklistItemUsage, config, "item_usage_blacklist");
@@ -159,10 +186,36 @@ public class RegionManager extends ConfigurableManager {
         readResourceLocations(doors, config, "custom_doors");
 
         for (WorldRegionManager manager : managers.values()) {
+            scheduleLoad(manager);
+        }
+        finishLoading();
+    }
+
+    /**
+     * Reads the world's regions on the loader pool. The result is published by {@link #finishLoading()}.
+     */
+    private void scheduleLoad(WorldRegionManager manager) {
+        WorldRegionManager.Loader loader = manager.startLoading();
+        pendingLoads.put(manager, LOADERS.submit(() -> {
+            loader.run();
+            return loader;
+        }));
+    }
+
+    /**
+     * Waits for all scheduled world loads and publishes their results on the calling (server) thread,
+     * so the total wait is that of the slowest world. A world that failed to load keeps no storage and is never saved.
+     * An interrupt does not cut the wait short, since a world skipped here would run with no regions at all; it is
+     * restored once every world is published.
+     */
+    void finishLoading() {
+        for (Iterator<Map.Entry<WorldRegionManager, Future<WorldRegionManager.Loader>>> it = pendingLoads.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<WorldRegionManager, Future<WorldRegionManager.Loader>> entry = it.next();
+            it.remove();
             try {
-                manager.load();
-            } catch (IOException e) {
-                e.printStackTrace();
+                Uninterruptibles.getUninterruptibly(entry.getValue()).publish();
+            } catch (ExecutionException | IOException e) {
+                LOGGER.error("Failed to load regions of world " + entry.getKey().getName(), e instanceof ExecutionException ? e.getCause() : e);
             }
         }
     }
@@ -170,6 +223,8 @@ public class RegionManager extends ConfigurableManager {
     @Override
     public void save(JsonObject config) {
         config.addProperty("default-pvp", defaultPvP);
+        config.addProperty("storage-format", storageFormat.name().toLowerCase());
+        config.addProperty("storage-jdbc-url", storageUrl);
 
         writeResourceLocations(whitelistBlockUsage, config, "block_usage_whitelist");
         writeResourceLocations(blacklistItemUsage, config, "item_usage_blacklist");
@@ -179,15 +234,48 @@ public class RegionManager extends ConfigurableManager {
 
         if (!omitRegionSave) {
             for (WorldRegionManager manager : managers.values()) {
-                try {
-                    manager.save(true);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                manager.save();
             }
         }
     }
 
+    RegionFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    /**
+     * Region files in the configured format by default, or a database if {@code storage-jdbc-url} is set.
+     * {@code {world}} in the URL is replaced with the world directory, e.g. {@code jdbc:sqlite:{world}/regions.db}.
+     */
+    RegionStorage createStorage(WorldRegionManager manager, Path worldDir) throws IOException {
+        if (storageUrl.isEmpty()) {
+            return new FileRegionStorage(manager, worldDir.resolve("regions"), storageFormat);
+        }
+        return new SqlRegionStorage(manager, storageUrl.replace("{world}", worldDir.toAbsolutePath().toString()));
+    }
+
+    /**
+     * Exports every loaded world to JSON, see {@link WorldRegionManager#export()}.
+     */
+    public List<Path> exportRegions() {
+        List<Path> result = new ArrayList<>();
+        for (WorldRegionManager manager : managers.values()) {
+            result.add(manager.export());
+        }
+        return result;
+    }
+
+    /**
+     * Estimated heap usage of the regions of every loaded world, see {@link RegionMemory}.
+     */
+    public List<RegionMemory> getMemoryUsage() {
+        List<RegionMemory> result = new ArrayList<>();
+        for (WorldRegionManager manager : managers.values()) {
+            result.add(manager.getMemoryUsage());
+        }
+        return result;
+    }
+
     public void saveConfiguration() throws IOException {
         omitRegionSave = true;
         save(true);
@@ -205,7 +293,7 @@ public class RegionManager extends ConfigurableManager {
         int maxCount = sender.getPermissionMetadata("region.max-count", 5, Integer::parseInt);
 
         int area = width * depth;
-        int count = getPlayerRegions(sender, sender.getWorld()).size();
+        int count = getPlayerRegionCount(sender.getId(), sender.getWorld());
 
         if (count >= maxCount) {
             throw new CommandException("commands.region.create.too_many", count, maxCount);
@@ -257,15 +345,19 @@ public class RegionManager extends ConfigurableManager {
         Region region = manager.createRegion(start, end, owner);
         if (region != null) {
             notifyRegionChange(region);
-            try {
-                manager.save(true);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
         return region;
     }
 
+    /**
+     * Returns the latest region snapshot of a dimension, see {@link RegionSnapshot}. Unlike everything else here,
+     * this may be called from any thread.
+     */
+    public RegionSnapshot getSnapshot(int dimension) {
+        WorldRegionManager manager = snapshotSources.get(dimension);
+        return manager != null ? manager.getSnapshot() : RegionSnapshot.EMPTY;
+    }
+
     public List<Region> getAllLoadedRegions() {
         List<Region> result = new ArrayList<>();
         for (WorldRegionManager manager : managers.values()) {
@@ -275,13 +367,15 @@ public class RegionManager extends ConfigurableManager {
     }
 
     public Region getRegion(UUID id) {
-        Region result;
-        for (WorldRegionManager manager : managers.values()) {
-            if ((result = manager.getRegion(id)) != null) {
-                return result;
+        Region region = regionsById.get(id);
+        if (region == null) {
+            for (WorldRegionManager manager : managers.values()) {
+                if ((region = manager.getRegion(id)) != null) {
+                    break;
+                }
             }
         }
-        return null;
+        return region;
     }
 
     public List<Region> getPlayerRegions(OfflinePlayer owner, World world) {
@@ -310,16 +404,103 @@ public class RegionManager extends ConfigurableManager {
         return Collections.emptyList();
     }
 
-    public Region getRegion(Location location) {
-        WorldRegionManager manager = getWorld(location);
-        if (manager != null) {
-            for (Region region : manager.getAllRegions()) {
-                if (region.isOwning(location)) {
-                    return region;
-                }
+    public int getPlayerRegionCount(UUID owner, World world) {
+        if (world == null) {
+            int result = 0;
+            for (WorldRegionManager manager : managers.values()) {
+                result += manager.getPlayerRegionCount(owner);
             }
+            return result;
+        } else {
+            WorldRegionManager m = getWorld(world.getDimension().getVanilla().getName());
+            return m != null ? m.getPlayerRegionCount(owner) : 0;
         }
-        return null;
+    }
+
+    public List<Region> getMemberRegions(UUID member, World world) {
+        if (world == null) {
+            List<Region> result = new ArrayList<>();
+            for (WorldRegionManager manager : managers.values()) {
+                result.addAll(manager.getMemberRegions(member));
+            }
+            return result;
+        } else {
+            WorldRegionManager m = getWorld(world.getDimension().getVanilla().getName());
+            return m != null ? m.getMemberRegions(member) : Collections.emptyList();
+        }
+    }
+
+    /**
+     * For commands and one-off checks: loads the shard of a claimed position if needed, see
+     * {@link WorldRegionManager#getRegion(Location)}. The block and entity forms below never touch storage.
+     */
+    public Region getRegion(Location location) {
+        WorldRegionManager manager = dimensions.get(location.getDimensionId());
+        return manager != null ? manager.getRegion(location) : null;
+    }
+
+    public Region getRegion(net.minecraft.world.World world, BlockPos pos) {
+        return getRegion(world.provider.getDimension(), pos.getX(), pos.getZ());
+    }
+
+    public Region getRegion(Entity entity) {
+        return getRegion(entity.world.provider.getDimension(), MathHelper.floor(entity.posX), MathHelper.floor(entity.posZ));
+    }
+
+    public Region getRegion(int dimension, int x, int z) {
+        WorldRegionManager manager = dimensions.get(dimension);
+        return manager != null ? manager.getRegion(x, z) : null;
+    }
+
+    /**
+     * Resolves the regions of many positions with one index probe per distinct chunk. The result is parallel to
+     * {@code positions}, with {@code null} outside any region.
+     */
+    public Region[] getRegions(net.minecraft.world.World world, List<BlockPos> positions) {
+        WorldRegionManager manager = dimensions.get(world.provider.getDimension());
+        return manager != null ? manager.getRegions(positions) : new Region[positions.size()];
+    }
+
+    public Region[] getEntityRegions(net.minecraft.world.World world, List<? extends Entity> entities) {
+        WorldRegionManager manager = dimensions.get(world.provider.getDimension());
+        return manager != null ? manager.getEntityRegions(entities) : new Region[entities.size()];
+    }
+
+    /**
+     * Negative filter for event handlers: {@code false} means no region touches the chunk holding the block column,
+     * so the handler can return before doing any region work.
+     */
+    public boolean isClaimed(int dimension, int x, int z) {
+        WorldRegionManager manager = dimensions.get(dimension);
+        return manager != null && manager.isClaimed(x >> 4, z >> 4);
+    }
+
+    public boolean isClaimed(net.minecraft.world.World world, BlockPos pos) {
+        return isClaimed(world.provider.getDimension(), pos.getX(), pos.getZ());
+    }
+
+    public boolean isClaimed(Entity entity) {
+        return isClaimed(entity.world.provider.getDimension(), MathHelper.floor(entity.posX), MathHelper.floor(entity.posZ));
+    }
+
+    /**
+     * Returns the region the player stands in, reusing the per-player cache kept up to date by {@link #onPlayerTick}.
+     * Fake players of machines never log out, so they get no cache and are looked up directly.
+     */
+    public Region getPlayerRegion(EntityPlayer player) {
+        if (player.world.isRemote || player instanceof FakePlayer) {
+            return getRegion(player);
+        }
+        return getTracker(player).update(this, player);
+    }
+
+    private PlayerRegionTracker getTracker(EntityPlayer player) {
+        PlayerRegionTracker tracker = trackers.get(player.getUniqueID());
+        if (tracker == null) {
+            trackers.put(player.getUniqueID(), tracker = new PlayerRegionTracker());
+            tracker.update(this, player);
+        }
+        return tracker;
     }
 
     public List<Region> getNearbyRegions(Location start, Location end, boolean loadWorld) {
@@ -328,26 +509,20 @@ public class RegionManager extends ConfigurableManager {
         }
         WorldRegionManager manager = getWorld(start);
         if (manager != null) {
-            List<Region> result = new ArrayList<>();
-            Bounding origin = new BoxBounding(start, end);
-            for (Region region : manager.getAllRegions()) {
-                if (origin.isIntersects(region)) {
-                    result.add(region);
-                }
-            }
-            return result;
+            return manager.getRegions(start.getBlockX(), start.getBlockZ(), end.getBlockX(), end.getBlockZ());
         }
         return Collections.emptyList();
     }
 
     public Region deleteRegion(UUID id) {
-        Region region;
-        for (WorldRegionManager manager : managers.values()) {
-            if ((region = manager.deleteRegion(id)) != null) {
-                return region;
-            }
+        Region region = getRegion(id);
+        return region != null ? region.getManager().deleteRegion(id) : null;
+    }
+
+    void forgetRegion(UUID id) {
+        for (PlayerRegionTracker tracker : trackers.values()) {
+            tracker.forget(id);
         }
-        return null;
     }
 
     @SubscribeEvent
@@ -369,13 +544,14 @@ public class RegionManager extends ConfigurableManager {
     public void onWorldLoad(WorldEvent.Load event) {
         World world = World.fromVanilla(server, event.getWorld());
         if (world != null) {
-            WorldRegionManager manager = new WorldRegionManager(server, world, defaultPvP, LOGGER);
+            WorldRegionManager manager = new WorldRegionManager(this, server, world, defaultPvP);
             managers.put(world.getDimension().getVanilla().getName(), manager);
+            dimensions.put(event.getWorld().provider.getDimension(), manager);
+            snapshotSources.put(event.getWorld().provider.getDimension(), manager);
             if (loaded) {
-                try {
-                    manager.load();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                scheduleLoad(manager);
+                if (ticking) {
+                    finishLoading();
                 }
             }
         }
@@ -398,111 +574,111 @@ public class RegionManager extends ConfigurableManager {
 
     @SubscribeEvent
     public void onWorldUnload(WorldEvent.Unload event) {
+        finishLoading();
         String worldName = event.getWorld().provider.getDimensionType().getName();
         WorldRegionManager manager = managers.remove(worldName);
+        int dimension = event.getWorld().provider.getDimension();
+        if (dimensions.get(dimension) == manager) {
+            dimensions.remove(dimension);
+        }
+        snapshotSources.remove(dimension, manager);
         if (manager != null) {
-            try {
-                manager.save(true);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            manager.save();
+            manager.awaitSave();
+            manager.closeStorage();
+            manager.unloadRegions();
         }
     }
 
     @SubscribeEvent
-    public void onPlayerMove(LivingEvent.LivingUpdateEvent event) {
-        if (event.getEntityLiving() instanceof EntityPlayer && !event.getEntityLiving().getEntityWorld().isRemote) {
-            EntityPlayer player = (EntityPlayer) event.getEntityLiving();
-            if (player.lastTickPosX != player.posX || player.lastTickPosY != player.posY || player.lastTickPosZ != player.posZ) {
-                Location oldLocation = new Location(player.world, player.lastTickPosX, player.lastTickPosY, player.lastTickPosZ);
-                Location newLocation = new Location(player.world, player.posX, player.posY, player.posZ);
-                Region oldRegion = getRegion(oldLocation);
-                Region newRegion = getRegion(newLocation);
-                if (!Objects.equals(oldRegion, newRegion) && newRegion != null || oldRegion != null && newRegion != null && !Objects.equals(oldRegion.owner, newRegion.owner)) {
-                    PlayerManager playerManager = server.getPlayerManager();
-                    OfflinePlayer owner = playerManager.getOffline(newRegion.getOwner());
-                    if (owner != null) {
-                        Player target = Player.from((EntityPlayerMP) player);
-                        target.sendTitle(owner.getDisplayName(), new TextComponentTranslation("tooltip.region.owner"), 20, 20, 20);
-                    }
+    public void onPlayerTick(TickEvent.PlayerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END && event.side == Side.SERVER && !(event.player instanceof FakePlayer)) {
+            EntityPlayer player = event.player;
+            PlayerRegionTracker tracker = getTracker(player);
+            Region newRegion = tracker.update(this, player);
+            if (tracker.announce(newRegion) && newRegion != null) {
+                PlayerManager playerManager = server.getPlayerManager();
+                OfflinePlayer owner = playerManager.getOffline(newRegion.getOwner());
+                if (owner != null) {
+                    Player target = Player.from((EntityPlayerMP) player);
+                    target.sendTitle(owner.getDisplayName(), new TextComponentTranslation("tooltip.region.owner"), 20, 20, 20);
                 }
             }
         }
     }
 
+    @SubscribeEvent
+    public void onPlayerLeave(PlayerLoggedOutEvent event) {
+        trackers.remove(event.player.getUniqueID());
+    }
+
     public void notifyRegionChange(Region region) {
+        region.getManager().logChange(region);
         World world = World.fromVanilla(server, region.getStart().getWorld());
         for (Player player : world.getPlayers()) {
-            Bounding bounding = getPlayerRegionBounding(player, 200);
-            if (bounding.isIntersects(region)) {
-                player.sendPacket(new MessageRegion(server, region));
+            if (!(player.getEntity() instanceof FakePlayer)) {
+                getTracker(player.getEntity()).regionChanged(player.getEntity(), region);
             }
         }
     }
 
     @SubscribeEvent
     public void onServerTick(TickEvent.ServerTickEvent event) {
-        if (updateCounter++ >= SYNC_COOLDOWN) {
-            updateCounter = 0;
-            WorldManager worldManager = server.getWorldManager();
-            for (Map.Entry<String, WorldRegionManager> entry : managers.entrySet()) {
-                World world = worldManager.get(entry.getKey());
-                if (world != null) {
-                    WorldRegionManager manager = entry.getValue();
-                    for (Player player : world.getPlayers()) {
-                        Bounding bounding = getPlayerRegionBounding(player, 200);
-                        Set<Region> regions = new HashSet<>();
-                        for (Region region : manager.getAllRegions()) {
-                            if (bounding.isIntersects(region)) {
-                                regions.add(region);
-                            }
-                        }
-                        for (Region region : regions) {
-                            player.sendPacket(new MessageRegion(server, region));
-                        }
-                    }
-                }
+        if (event.phase == TickEvent.Phase.START) {
+            ticking = true;
+            if (!pendingLoads.isEmpty()) {
+                finishLoading();
             }
-        }
-    }
-
-    private Bounding getPlayerRegionBounding(Player player, int radius) {
-        return new Bounding() {
-            @Override
-            public double getStartX() {
-                return player.getLocation().getX() - radius;
+        } else if (event.phase == TickEvent.Phase.END) {
+            for (PlayerRegionTracker tracker : trackers.values()) {
+                tracker.flush();
             }
-
-            @Override
-            public double getStartY() {
-                return 0;
+            for (WorldRegionManager manager : managers.values()) {
+                manager.tick();
             }
+        }
+    }
 
-            @Override
-            public double getStartZ() {
-                return player.getLocation().getZ() - radius;
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event) {
+        if (!event.getWorld().isRemote) {
+            WorldRegionManager manager = dimensions.get(event.getWorld().provider.getDimension());
+            if (manager != null) {
+                manager.onChunkLoad(event.getChunk().x, event.getChunk().z);
             }
+        }
+    }
 
-            @Override
-            public double getEndX() {
-                return player.getLocation().getX() + radius;
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        if (!event.getWorld().isRemote) {
+            WorldRegionManager manager = dimensions.get(event.getWorld().provider.getDimension());
+            if (manager != null) {
+                manager.onChunkUnload(event.getChunk().x, event.getChunk().z);
             }
+        }
+    }
 
-            @Override
-            public double getEndY() {
-                return 256;
-            }
+    @SubscribeEvent
+    public void onChunkWatch(ChunkWatchEvent.Watch event) {
+        EntityPlayerMP player = event.getPlayer();
+        ChunkPos chunk = event.getChunk();
+        WorldRegionManager manager = dimensions.get(player.world.provider.getDimension());
+        getTracker(player).watchChunk(player, manager, chunk.x, chunk.z);
+    }
 
-            @Override
-            public double getEndZ() {
-                return player.getLocation().getZ() + radius;
-            }
-        };
+    @SubscribeEvent
+    public void onChunkUnwatch(ChunkWatchEvent.UnWatch event) {
+        PlayerRegionTracker tracker = trackers.get(event.getPlayer().getUniqueID());
+        if (tracker != null) {
+            ChunkPos chunk = event.getChunk();
+            tracker.unwatchChunk(event.getPlayer(), chunk.x, chunk.z);
+        }
     }
 
     @SubscribeEvent
     public void onBlockBreak(BlockEvent.BreakEvent event) {
-        if (whitelistBlockBreakage.contains(event.getState().getBlock().getRegistryName())) {
+        if (!isClaimed(event.getWorld(), event.getPos()) || whitelistBlockBreakage.contains(event.getState().getBlock().getRegistryName())) {
             return;
         }
         checkBlocks(event, event.getPlayer());
@@ -514,8 +690,7 @@ public class RegionManager extends ConfigurableManager {
     }
 
     private void checkBlocks(BlockEvent event, EntityPlayer player) {
-        Location location = new Location(event.getWorld(), event.getPos());
-        Region region = getRegion(location);
+        Region region = getRegion(event.getWorld(), event.getPos());
         if (region != null && !region.canEditBlocks(player.getUniqueID())) {
             player.sendStatusMessage(Text.translation("chat.region.edit.blocks").red().build(), true);
             event.setCanceled(true);
@@ -525,8 +700,7 @@ public class RegionManager extends ConfigurableManager {
     @SubscribeEvent
     public void onCheckBlockModify(PlayerCheckCanEditEvent event) {
         EntityPlayer player = event.getEntityPlayer();
-        Location location = new Location(player.getEntityWorld(), event.pos);
-        Region region = getRegion(location);
+        Region region = getRegion(player.getEntityWorld(), event.pos);
         if (region != null && !region.canEditBlocks(player.getUniqueID())) {
             event.setCanceled(true);
         }
@@ -593,8 +767,7 @@ public class RegionManager extends ConfigurableManager {
         Entity entity = event.getEntity();
         net.minecraft.world.World world = event.getWorld();
         BlockPos pos = event.getPos();
-        Location location = new Location(world, pos);
-        Region region = getRegion(location);
+        Region region = getRegion(world, pos);
         if (region != null) {
             if (entity instanceof EntityPlayerMP) {
                 if (!region.canEditBlocks(entity.getUniqueID())) {
@@ -613,7 +786,7 @@ public class RegionManager extends ConfigurableManager {
     public void onHookEntity(PlayerHookEntityEvent event) {
         EntityPlayer angler = event.getAngler();
         Entity target = event.getEntity();
-        Region region = getRegion(new Location(target));
+        Region region = getRegion(target);
         if (region != null && !region.canHookEntity(angler.getGameProfile().getId())) {
             event.setCanceled(true);
         }
@@ -639,7 +812,7 @@ public class RegionManager extends ConfigurableManager {
         EntityLivingBase thrower = throwable.getThrower();
         if (target.entityHit != null) {
             if (thrower instanceof EntityPlayer) {
-                Region region = getRegion(new Location(target.entityHit));
+                Region region = getRegion(target.entityHit);
                 if (region != null) {
                     if (checkAttack(((EntityPlayer) thrower), target.entityHit)) {
                         event.setCanceled(true);
@@ -669,7 +842,7 @@ public class RegionManager extends ConfigurableManager {
                 }
             }
         } else if (thrower instanceof EntityPlayer) {
-            Region region = getRegion(new Location(throwable));
+            Region region = getRegion(throwable);
             if (region != null && !region.canLaunchProjectiles(thrower.getUniqueID())) {
                 if (throwable instanceof EntityPotion) {
                     event.setCanceled(true);
@@ -724,8 +897,8 @@ public class RegionManager extends ConfigurableManager {
         if (event.getSender() instanceof EntityPlayer && event.getCommand() instanceof CommandEnderchest) {
             EntityPlayer player = (EntityPlayer) event.getSender();
             Player p = Player.from((EntityPlayerMP) player);
-            Region region = getRegion(new Location(player));
-            if (region != null && region.restrictCommands && !p.hasPermission("region.commands")) {
+            Region region = getPlayerRegion(player);
+            if (region != null && region.isRestrictCommands() && !p.hasPermission("region.commands")) {
                 event.setCanceled(true);
                 p.sendMessage(Text.translation("chat.region.no-command").red());
                 player.playSound(CraftSounds.BAN, 0.8F, 1F);
@@ -736,8 +909,8 @@ public class RegionManager extends ConfigurableManager {
     }
 
     private void checkTeleport(PlayerEvent event, Player player) {
-        Region region = getRegion(new Location(player.getEntity()));
-        if (region != null && region.restrictCommands && !player.hasPermission("region.commands")) {
+        Region region = getPlayerRegion(player.getEntity());
+        if (region != null && region.isRestrictCommands() && !player.hasPermission("region.commands")) {
             event.setCanceled(true);
             player.sendMessage(Text.translation("chat.region.no-teleport").red());
             player.playSound(CraftSounds.BAN, 0.8F, 1F);
@@ -745,14 +918,14 @@ public class RegionManager extends ConfigurableManager {
     }
 
     private boolean checkProtectFromMob(EntityPlayer player, Entity mob) {
-        Region targetRegion = getRegion(new Location(player));
+        Region targetRegion = getPlayerRegion(player);
         return targetRegion != null && targetRegion.isPreventingMobAttacks();
     }
 
     private boolean checkAttack(EntityPlayer player, Entity target) {
-        Region targetRegion = getRegion(new Location(target));
+        Region targetRegion = target instanceof EntityPlayer ? getPlayerRegion((EntityPlayer) target) : getRegion(target);
         if (target instanceof EntityPlayer) {
-            Region fromRegion = getRegion(new Location(player));
+            Region fromRegion = getPlayerRegion(player);
             if (fromRegion != null && !fromRegion.isPvP() || targetRegion != null && !targetRegion.isPvP()) {
                 RegionPvpStatusEvent event = new RegionPvpStatusEvent(fromRegion, targetRegion, player, (EntityPlayer) target);
                 MinecraftForge.EVENT_BUS.post(event);
@@ -801,8 +974,7 @@ public class RegionManager extends ConfigurableManager {
     public void onPlaceBoat(PlayerPlaceBoatEvent event) {
         EntityPlayer player = event.getEntityPlayer();
         RayTraceResult target = event.target;
-        Location location = new Location(player.world, target.hitVec);
-        Region region = getRegion(location);
+        Region region = getRegion(player.world.provider.getDimension(), MathHelper.floor(target.hitVec.x), MathHelper.floor(target.hitVec.z));
         if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
             event.setCanceled(true);
             Text<?, ?> message = Text.translation("chat.region.interact.blocks");
@@ -812,9 +984,10 @@ public class RegionManager extends ConfigurableManager {
 
     @SubscribeEvent
     public void onEntitySpawn(LivingSpawnEvent.CheckSpawn event) {
-        EntityLivingBase entity = event.getEntityLiving();
-        Location location = new Location(event.getWorld(), new BlockPos(entity));
-        Region region = getRegion(location);
+        if (!isClaimed(event.getEntityLiving())) {
+            return;
+        }
+        Region region = getRegion(event.getEntityLiving());
         if (region != null && !region.canSpawnMobs()) {
             event.setResult(Event.Result.DENY);
         }
@@ -822,9 +995,7 @@ public class RegionManager extends ConfigurableManager {
 
     @SubscribeEvent
     public void onFalling(LivingFallEvent event) {
-        EntityLivingBase entity = event.getEntityLiving();
-        Location location = new Location(entity.getEntityWorld(), new BlockPos(entity));
-        Region region = getRegion(location);
+        Region region = getRegion(event.getEntityLiving());
         if (region != null && !region.isFallDamage()) {
             event.setCanceled(true);
         }
@@ -833,8 +1004,7 @@ public class RegionManager extends ConfigurableManager {
     @SubscribeEvent
     public void onJoin(PlayerLoggedInEvent event) {
         EntityPlayer player = event.player;
-        Location location = new Location(player.getEntityWorld(), new BlockPos(player));
-        Region region = getRegion(location);
+        Region region = getRegion(player);
         if (region != null && region.isTeleportSpawn()) {
             Player p = Player.from((EntityPlayerMP) player);
             Location bedLocation = p.getBedLocation();
@@ -845,12 +1015,11 @@ public class RegionManager extends ConfigurableManager {
 
     @SubscribeEvent
     public void onRightClickItem(PlayerInteractEvent.RightClickItem event) {
-        ResourceLocation name = event.getItemStack().getItem().getRegistryName();
-        Location location = new Location(event.getWorld(), event.getPos());
-        Region region = getRegion(location);
+        Region region = getRegion(event.getWorld(), event.getPos());
         if (region == null) {
             return;
         }
+        ResourceLocation name = event.getItemStack().getItem().getRegistryName();
         Set<ResourceLocation> itemUsage = region.getRightClickItemUsage();
         if (itemUsage.contains(name)) {
             event.setCancellationResult(EnumActionResult.FAIL);
@@ -862,10 +1031,10 @@ public class RegionManager extends ConfigurableManager {
     @SubscribeEvent
     public void onBlockRightClick(PlayerInteractEvent.RightClickBlock event) {
         EntityPlayer player = event.getEntityPlayer();
-        Location location = new Location(event.getWorld(), event.getPos());
-        if (!location.isAir()) {
-            Region region = getRegion(location);
-            if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
+        Region region = getRegion(event.getWorld(), event.getPos());
+        if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
+            Location location = new Location(event.getWorld(), event.getPos());
+            if (!location.isAir()) {
                 boolean whitelisted = whitelistBlockUsage.contains(location.getBlock().getRegistryName());
                 if (!whitelisted) {
                     event.setUseBlock(Event.Result.DENY);
@@ -912,11 +1081,11 @@ public class RegionManager extends ConfigurableManager {
     @SubscribeEvent
     public void onBlockLeftClick(PlayerInteractEvent.LeftClickBlock event) {
         EntityPlayer player = event.getEntityPlayer();
-        Location location = new Location(event.getWorld(), event.getPos());
-        boolean whitelisted = whitelistBlockBreakage.contains(location.getBlock().getRegistryName());
-        if (!location.isAir() && !whitelisted) {
-            Region region = getRegion(location);
-            if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
+        Region region = getRegion(event.getWorld(), event.getPos());
+        if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
+            Location location = new Location(event.getWorld(), event.getPos());
+            boolean whitelisted = whitelistBlockBreakage.contains(location.getBlock().getRegistryName());
+            if (!location.isAir() && !whitelisted) {
                 event.setUseBlock(Event.Result.DENY);
                 player.sendStatusMessage(Text.translation("chat.region.interact.blocks").red().build(), true);
             }
@@ -934,10 +1103,13 @@ public class RegionManager extends ConfigurableManager {
     }
 
     private void checkEntityInteract(EntityPlayer player, Entity target, Event event) {
-        Region region = getRegion(new Location(target));
+        Region region = getRegion(target);
+        if (region == null) {
+            return;
+        }
         boolean customNpc = target.getClass().getName().endsWith("EntityCustomNpc");
         boolean isBoat = target instanceof EntityBoat;
-        if (region != null && !region.canInteractEntities(player.getUniqueID()) && !customNpc && !isBoat) {
+        if (!region.canInteractEntities(player.getUniqueID()) && !customNpc && !isBoat) {
             event.setCanceled(true);
             if (target instanceof EntityPlayer) {
                 player.sendStatusMessage(Text.translation("chat.region.interact.players").red().build(), true);
@@ -961,9 +1133,8 @@ public class RegionManager extends ConfigurableManager {
     public void onBucketFill(FillBucketEvent event) {
         RayTraceResult target = event.getTarget();
         if (target != null) {
-            Location location = new Location(event.getWorld(), target.getBlockPos());
             EntityPlayer player = event.getEntityPlayer();
-            Region region = getRegion(location);
+            Region region = getRegion(event.getWorld(), target.getBlockPos());
             if (region != null && !region.canInteractBlocks(player.getUniqueID())) {
                 event.setResult(Event.Result.DENY);
                 event.setCanceled(true);
@@ -982,30 +1153,36 @@ public class RegionManager extends ConfigurableManager {
     public void onPistonCheckCanMove(PistonCheckCanMoveEvent event) {
         if (!event.getWorld().isRemote) {
             net.minecraft.world.WorldServer world = (WorldServer) event.getWorld();
-            Location pistonPos = new Location(world, event.getPistonPos());
-            Region pistonRegion = getRegion(pistonPos);
-            Location movePos = new Location(world, event.getBlockToMove());
-            Region moveRegion = getRegion(movePos);
+            BlockPos pistonPos = event.getPistonPos();
+            List<BlockPos> toMove = event.getToMove();
+            List<BlockPos> toDestroy = event.getToDestroy();
+            List<BlockPos> positions = new ArrayList<>(2 + toMove.size() + toDestroy.size());
+            positions.add(pistonPos);
+            positions.add(event.getBlockToMove());
+            positions.addAll(toMove);
+            positions.addAll(toDestroy);
+            Region[] regions = getRegions(world, positions);
+            Region pistonRegion = regions[0];
+            Region moveRegion = regions[1];
             if (moveRegion != null && moveRegion != pistonRegion) {
                 event.setResult(Event.Result.DENY);
                 world.addScheduledTask(() -> {
-                    SPacketBlockChange packet = new SPacketBlockChange(pistonPos.getWorld(), pistonPos.getPos());
+                    SPacketBlockChange packet = new SPacketBlockChange(world, pistonPos);
                     for (EntityPlayer player : world.playerEntities) {
                         EntityPlayerMP p = (EntityPlayerMP) player;
-                        if (pistonPos.distanceSq(new Location(p)) <= 512) {
+                        if (pistonPos.distanceSq(p.posX, p.posY, p.posZ) <= 512) {
                             p.connection.sendPacket(packet);
                         }
                     }
                 });
                 return;
             }
-            for (BlockPos pos : event.getToMove()) {
-                Location loc = new Location(world, pos);
-                Region reg = getRegion(loc);
+            for (int i = 0; i < toMove.size(); i++) {
+                Region reg = regions[2 + i];
                 if (reg != null && reg != pistonRegion) {
                     event.setResult(Event.Result.DENY);
                     world.addScheduledTask(() -> {
-                        for (BlockPos p : event.getToMove()) {
+                        for (BlockPos p : toMove) {
                             SPacketBlockChange packet = new SPacketBlockChange(world, p);
                             for (EntityPlayer player : world.playerEntities) {
                                 EntityPlayerMP pl = (EntityPlayerMP) player;
@@ -1018,13 +1195,12 @@ public class RegionManager extends ConfigurableManager {
                     return;
                 }
             }
-            for (BlockPos pos : event.getToDestroy()) {
-                Location loc = new Location(world, pos);
-                Region reg = getRegion(loc);
+            for (int i = 0; i < toDestroy.size(); i++) {
+                Region reg = regions[2 + toMove.size() + i];
                 if (reg != null && reg != pistonRegion) {
                     event.setResult(Event.Result.DENY);
                     world.addScheduledTask(() -> {
-                        for (BlockPos p : event.getToDestroy()) {
+                        for (BlockPos p : toDestroy) {
                             SPacketBlockChange packet = new SPacketBlockChange(world, p);
                             for (EntityPlayer player : world.playerEntities) {
                                 EntityPlayerMP pl = (EntityPlayerMP) player;
@@ -1046,10 +1222,15 @@ public class RegionManager extends ConfigurableManager {
     }
 
     private void onBlockFromTo(Event event, net.minecraft.world.World world, BlockPos pos, EnumFacing facing, boolean multiParticles, @Nullable EntityPlayer player) {
-        Location from = new Location(world, pos);
-        Location to = from.offset(facing);
-        Region targetRegion = getRegion(to);
-        if (targetRegion != null && targetRegion != getRegion(from) && (player == null || !targetRegion.canInteractBlocks(player.getUniqueID()))) {
+        int dimension = world.provider.getDimension();
+        Vec3i direction = facing.getDirectionVec();
+        int targetX = pos.getX() + direction.getX(), targetZ = pos.getZ() + direction.getZ();
+        if (!isClaimed(dimension, targetX, targetZ)) {
+            return;
+        }
+        Region targetRegion = getRegion(dimension, targetX, targetZ);
+        if (targetRegion != null && targetRegion != getRegion(dimension, pos.getX(), pos.getZ()) && (player == null || !targetRegion.canInteractBlocks(player.getUniqueID()))) {
+            Location to = new Location(world, pos.offset(facing));
             Random rand = world.rand;
             int max = multiParticles ? 2 + rand.nextInt(3) : 1;
             for (int i = 0; i < max; i++) {
@@ -1064,9 +1245,7 @@ public class RegionManager extends ConfigurableManager {
 
     @SubscribeEvent
     public void onEntityDestroyBlock(LivingDestroyBlockEvent event) {
-        Entity entity = event.getEntity();
-        Location location = new Location(entity.world, event.getPos());
-        Region region = getRegion(location);
+        Region region = getRegion(event.getEntity().world, event.getPos());
         if (region != null && !region.canEditBlocks(MINECRAFT.getId())) {
             event.setCanceled(true);
         }
@@ -1079,16 +1258,63 @@ public class RegionManager extends ConfigurableManager {
         List<Entity> entities = event.getAffectedEntities();
         int bc = blocks.size();
         int ec = entities.size();
-        blocks.removeIf(pos -> {
-            Location location = new Location(event.getWorld(), pos);
-            Region region = getRegion(location);
-            return !location.isAir() && region != null && !region.explosions;
-        });
-        entities.removeIf(entity -> {
-            Location location = new Location(entity);
-            Region region = getRegion(location);
-            return region != null && (!(entity instanceof EntityPlayer) || !region.pvp || !region.explosions);
-        });
+        net.minecraft.world.World world = event.getWorld();
+        WorldRegionManager manager = dimensions.get(world.provider.getDimension());
+        if (manager == null || bc == 0 && ec == 0) {
+            return;
+        }
+        int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int i = 0; i < bc; i++) {
+            BlockPos pos = blocks.get(i);
+            minX = Math.min(minX, pos.getX());
+            minZ = Math.min(minZ, pos.getZ());
+            maxX = Math.max(maxX, pos.getX());
+            maxZ = Math.max(maxZ, pos.getZ());
+        }
+        for (int i = 0; i < ec; i++) {
+            Entity entity = entities.get(i);
+            int x = MathHelper.floor(entity.posX), z = MathHelper.floor(entity.posZ);
+            minX = Math.min(minX, x);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxZ = Math.max(maxZ, z);
+        }
+        List<Region> regions = manager.getLoadedRegions(minX, minZ, maxX, maxZ);
+        if (regions.isEmpty()) {
+            return;
+        }
+        if (regions.size() == 1 && regions.get(0).contains(minX, minZ) && regions.get(0).contains(maxX, maxZ)) {
+            Region region = regions.get(0);
+            if (!region.isExplosions()) {
+                blocks.removeIf(pos -> !world.isAirBlock(pos));
+                entities.clear();
+            } else if (!region.isPvP()) {
+                entities.clear();
+            } else {
+                entities.removeIf(entity -> !(entity instanceof EntityPlayer));
+            }
+        } else {
+            Region[] blockRegions = manager.getRegions(blocks);
+            int kept = 0;
+            for (int i = 0; i < bc; i++) {
+                BlockPos pos = blocks.get(i);
+                Region region = blockRegions[i];
+                if (region == null || region.isExplosions() || world.isAirBlock(pos)) {
+                    blocks.set(kept++, pos);
+                }
+            }
+            blocks.subList(kept, bc).clear();
+            Region[] entityRegions = manager.getEntityRegions(entities);
+            kept = 0;
+            for (int i = 0; i < ec; i++) {
+                Entity entity = entities.get(i);
+                Region region = entityRegions[i];
+                if (region == null || entity instanceof EntityPlayer && region.isPvP() && region.isExplosions()) {
+                    entities.set(kept++, entity);
+                }
+            }
+            entities.subList(kept, ec).clear();
+        }
         EntityLivingBase placer = explosion.getExplosivePlacedBy();
         if (placer instanceof EntityPlayer && (bc != blocks.size() || ec != entities.size())) {
             EntityPlayer player = (EntityPlayer) placer;
@@ -1099,10 +1325,9 @@ public class RegionManager extends ConfigurableManager {
     @SubscribeEvent
     public void onBlockBreakSpeedCheck(PlayerEvent.BreakSpeed event) {
         EntityPlayer player = event.getEntityPlayer();
-        Location location = new Location(player.world, event.getPos());
-        Region region = getRegion(location);
-        boolean whitelisted = whitelistBlockBreakage.contains(location.getBlock().getRegistryName());
-        if (region != null && !region.canEditBlocks(player.getUniqueID()) && !whitelisted) {
+        Region region = getRegion(player.world, event.getPos());
+        if (region != null && !region.canEditBlocks(player.getUniqueID())
+            && !whitelistBlockBreakage.contains(event.getState().getBlock().getRegistryName())) {
             event.setCanceled(true);
         }
     }
@@ -1110,7 +1335,7 @@ public class RegionManager extends ConfigurableManager {
     public boolean toggleOverride(Player sender) throws CommandException {
         WorldRegionManager manager = getWorld(sender);
         if (manager != null) {
-            boolean result = !manager.regionAccessOverrides.remove(sender.getId()) && manager.regionAccessOverrides.add(sender.getId());
+            boolean result = manager.toggleAccessOverride(sender.getId());
             sender.sendPacket(new MessageOverride(result));
             return result;
         } else {
@@ -0,0 +1,89 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.util.ResourceLocation;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.util.Set;
+
+/**
+ * Estimated heap footprint of a world's regions, for {@code /regions memory}. Sizes are computed from the field layout
+ * of a 64-bit JVM with compressed oops (12 byte headers, 4 byte references, 8 byte alignment), not measured.
+ * Interned player ids and the cached save and network copies of a region are not counted.
+ */
+public final class RegionMemory {
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final long UUID = object(0, 0, 2, 0);
+    private static final long REGION = object(7, 8, 1, 1);
+    private static final long STUB = object(2, 4, 0, 0);
+    private static final long RESOURCE_LOCATION = object(2, 0, 0, 0) + 2 * object(1, 1, 0, 0);
+
+    public final String world;
+    public final int regions;
+    public final int stubs;
+    public final long regionBytes;
+    public final long stubBytes;
+
+    RegionMemory(String world, int regions, int stubs, long regionBytes, long stubBytes) {
+        this.world = world;
+        this.regions = regions;
+        this.stubs = stubs;
+        this.regionBytes = regionBytes;
+        this.stubBytes = stubBytes;
+    }
+
+    public long getBytesPerRegion() {
+        return regions == 0 ? 0 : regionBytes / regions;
+    }
+
+    static long sizeOf(Region region) {
+        long size = REGION + UUID;
+        if (!region.members.isEmpty()) {
+            size += openHashMap(region.members.size());
+        }
+        Set<ResourceLocation> items = region.rightClickItemUsage;
+        if (!items.isEmpty()) {
+            size += hashSet(items.size());
+            for (ResourceLocation item : items) {
+                size += RESOURCE_LOCATION + 2 * array(item.toString().length() / 2, 2);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The id is counted even though the loaded region, if any, may share it.
+     */
+    static long sizeOf(RegionStub stub) {
+        return STUB + UUID;
+    }
+
+    private static long object(int references, int ints, int longs, int bytes) {
+        return align(HEADER + references * REFERENCE + ints * 4 + longs * 8 + bytes);
+    }
+
+    private static long array(int length, int elementSize) {
+        return align(16 + (long) length * elementSize);
+    }
+
+    /**
+     * fastutil open hash map: the map object plus parallel key and value arrays.
+     */
+    private static long openHashMap(int size) {
+        int capacity = HashCommon.arraySize(size, 0.75F) + 1;
+        return object(5, 4, 0, 2) + array(capacity, REFERENCE) + array(capacity, 4);
+    }
+
+    /**
+     * {@link java.util.HashSet}: the set, its backing map, the table and one node per entry.
+     */
+    private static long hashSet(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, (int) (size / 0.75F)) * 2 - 1);
+        return object(1, 0, 0, 0) + object(4, 4, 0, 0) + array(capacity, REFERENCE) + size * object(3, 1, 0, 0);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
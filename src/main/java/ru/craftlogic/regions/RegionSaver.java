@@ -0,0 +1,198 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hands snapshots of one world to its {@link RegionStorage} on the shared region I/O thread.
+ * Snapshots scheduled while a write is still queued are merged into it, so a burst of changes costs a single write.
+ */
+public class RegionSaver {
+    private static final Logger LOGGER = LogManager.getLogger("RegionSaver");
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Region I/O");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RegionStorage storage;
+    private final RegionJournal journal;
+    private Snapshot next, writing, failed;
+    private volatile Future<?> running;
+
+    public RegionSaver(RegionStorage storage, RegionJournal journal) {
+        this.storage = storage;
+        this.journal = journal;
+    }
+
+    public void schedule(Snapshot snapshot) {
+        synchronized (this) {
+            if (failed != null) {
+                snapshot = snapshot.merge(failed);
+                failed = null;
+            }
+            if (next != null) {
+                next = snapshot.merge(next);
+                return;
+            }
+            next = snapshot;
+        }
+        running = IO.submit(this::drain);
+    }
+
+    /**
+     * Returns the newest not yet written state of a region, if a scheduled snapshot holds one.
+     * Shard files must not be read for such regions, they are stale until the write completes.
+     */
+    public synchronized RegionState getPending(long shard, UUID id) {
+        RegionState state = next != null ? next.getState(shard, id) : null;
+        if (state == null && writing != null) {
+            state = writing.getState(shard, id);
+        }
+        return state != null || failed == null ? state : failed.getState(shard, id);
+    }
+
+    /**
+     * Blocks until every snapshot scheduled so far has been written.
+     */
+    public void await() {
+        Future<?> running = this.running;
+        if (running != null) {
+            try {
+                running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOGGER.error("Failed to save regions", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Blocks until the I/O thread has finished everything submitted before this call, across all worlds.
+     */
+    public static void awaitAll() {
+        try {
+            IO.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Region I/O thread failed", e.getCause());
+        }
+    }
+
+    /**
+     * Writes every stored region into one JSON file on the I/O thread. Runs after every write scheduled before it.
+     */
+    public Future<?> export(Path target, boolean enabled, long sequence) {
+        return IO.submit(() -> {
+            try {
+                List<RegionState> states = new ArrayList<>();
+                storage.readAll(region -> states.add(new RegionState(region)));
+                RegionFiles.write(RegionFormat.JSON, target, enabled, sequence, states);
+                LOGGER.info("Exported {} regions to {}", states.size(), target);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to export " + target, e);
+            }
+        });
+    }
+
+    /**
+     * A failed snapshot is kept and merged into the next scheduled one, whose dirty bits no longer cover its shards.
+     * The journal is only truncated by a successful write, which then includes everything the failed one held.
+     */
+    private void drain() {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = writing = next;
+            next = null;
+        }
+        if (snapshot != null) {
+            try {
+                storage.write(snapshot);
+                journal.truncate(snapshot.sequence);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to save regions", e);
+                synchronized (this) {
+                    if (next != null) {
+                        next = next.merge(snapshot);
+                    } else {
+                        failed = snapshot;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    writing = null;
+                }
+            }
+        }
+    }
+
+    public static final class Snapshot {
+        final boolean enabled;
+        final long sequence;
+        final Long2ObjectMap<Shard> shards;
+        final Collection<RegionStub> manifest;
+
+        /**
+         * @param shards   changed shards, by shard key
+         * @param manifest all region stubs of the world, or {@code null} if they did not change
+         */
+        public Snapshot(boolean enabled, long sequence, Long2ObjectMap<Shard> shards, Collection<RegionStub> manifest) {
+            this.enabled = enabled;
+            this.sequence = sequence;
+            this.shards = shards;
+            this.manifest = manifest;
+        }
+
+        RegionState getState(long shard, UUID id) {
+            Shard s = shards.get(shard);
+            return s != null ? s.loaded.get(id) : null;
+        }
+
+        /**
+         * Folds an older, still unwritten snapshot into this one. Regions captured by the older snapshot that were
+         * unloaded since are only present there, so they are carried over unless this snapshot has a newer state.
+         */
+        Snapshot merge(Snapshot older) {
+            Long2ObjectMap<Shard> shards = new Long2ObjectOpenHashMap<>(older.shards);
+            for (Long2ObjectMap.Entry<Shard> entry : this.shards.long2ObjectEntrySet()) {
+                Shard newer = entry.getValue();
+                Shard old = shards.get(entry.getLongKey());
+                if (old != null) {
+                    for (Map.Entry<UUID, RegionState> state : old.loaded.entrySet()) {
+                        if (newer.keep.contains(state.getKey())) {
+                            newer.loaded.putIfAbsent(state.getKey(), state.getValue());
+                        }
+                    }
+                }
+                shards.put(entry.getLongKey(), newer);
+            }
+            return new Snapshot(enabled, sequence, shards, manifest != null ? manifest : older.manifest);
+        }
+    }
+
+    public static final class Shard {
+        final Map<UUID, RegionState> loaded;
+        final Set<UUID> keep;
+
+        /**
+         * @param loaded states of the shard's regions that are currently loaded
+         * @param keep   ids of all regions stored in the shard; those not loaded are copied from the existing file
+         */
+        public Shard(Map<UUID, RegionState> loaded, Set<UUID> keep) {
+            this.loaded = loaded;
+            this.keep = keep;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ru.craftlogic.regions;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.util.*;
+
+import static ru.craftlogic.regions.RegionStub.SHARD_SHIFT;
+
+/**
+ * Immutable view of the regions of one world: owner and bounds of every region, loaded or not, plus the players
+ * bypassing protection. Safe to query from any thread. A world publishes a new version after each change.
+ * The maps by id, shard and owner are each split into {@value #BUCKETS} hash buckets; a change copies the three bucket
+ * tables and only the buckets it touches, so its cost grows with the bucket size rather than with the number of regions.
+ */
+public final class RegionSnapshot {
+    private static final int BUCKETS = 256;
+    private static final RegionStub[] NO_STUBS = new RegionStub[0];
+
+    public static final RegionSnapshot EMPTY = new RegionSnapshot(0, 0, emptyBuckets(), emptyShardBuckets(), emptyBuckets(), Collections.emptySet());
+
+    private final long version;
+    private final int size;
+    private final Map<UUID, RegionStub>[] regions;
+    private final Long2ObjectMap<RegionStub[]>[] shards;
+    private final Map<UUID, List<RegionStub>>[] owners;
+    private final Set<UUID> overrides;
+
+    private RegionSnapshot(long version, int size, Map<UUID, RegionStub>[] regions, Long2ObjectMap<RegionStub[]>[] shards, Map<UUID, List<RegionStub>>[] owners, Set<UUID> overrides) {
+        this.version = version;
+        this.size = size;
+        this.regions = regions;
+        this.shards = shards;
+        this.owners = owners;
+        this.overrides = overrides;
+    }
+
+    public static RegionSnapshot of(long version, Collection<RegionStub> stubs, Set<UUID> overrides) {
+        Map<UUID, RegionStub> changes = new HashMap<>(stubs.size());
+        for (RegionStub stub : stubs) {
+            changes.put(stub.id, stub);
+        }
+        RegionSnapshot result = EMPTY.with(changes);
+        return new RegionSnapshot(version, result.size, result.regions, result.shards, result.owners, Collections.unmodifiableSet(new HashSet<>(overrides)));
+    }
+
+    /**
+     * Returns the next version with the given override set.
+     */
+    public RegionSnapshot withOverrides(Set<UUID> overrides) {
+        return new RegionSnapshot(version + 1, size, regions, shards, owners, Collections.unmodifiableSet(new HashSet<>(overrides)));
+    }
+
+    /**
+     * Returns the next version with the given regions replaced. A {@code null} stub removes the region.
+     */
+    public RegionSnapshot with(Map<UUID, RegionStub> changes) {
+        Map<UUID, RegionStub>[] regions = this.regions.clone();
+        int size = this.size;
+        LongSet touchedShards = new LongOpenHashSet();
+        Set<UUID> touchedOwners = new HashSet<>();
+        for (Map.Entry<UUID, RegionStub> change : changes.entrySet()) {
+            Map<UUID, RegionStub> bucket = edit(regions, this.regions, change.getKey());
+            RegionStub old = change.getValue() != null ? bucket.put(change.getKey(), change.getValue()) : bucket.remove(change.getKey());
+            if (old == null && change.getValue() != null) {
+                size++;
+            } else if (old != null && change.getValue() == null) {
+                size--;
+            }
+            for (RegionStub stub : Arrays.asList(old, change.getValue())) {
+                if (stub != null) {
+                    touchedOwners.add(stub.owner);
+                    for (int sx = stub.minX >> SHARD_SHIFT; sx <= stub.maxX >> SHARD_SHIFT; sx++) {
+                        for (int sz = stub.minZ >> SHARD_SHIFT; sz <= stub.maxZ >> SHARD_SHIFT; sz++) {
+                            touchedShards.add(RegionStub.shardKey(sx, sz));
+                        }
+                    }
+                }
+            }
+        }
+        Long2ObjectMap<RegionStub[]>[] shards = this.shards.clone();
+        for (long key : touchedShards) {
+            List<RegionStub> stubs = new ArrayList<>();
+            RegionStub[] old = getShard(key);
+            if (old != null) {
+                for (RegionStub stub : old) {
+                    if (!changes.containsKey(stub.id)) {
+                        stubs.add(stub);
+                    }
+                }
+            }
+            int sx = RegionStub.shardX(key), sz = RegionStub.shardZ(key);
+            for (RegionStub stub : changes.values()) {
+                if (stub != null && stub.minX >> SHARD_SHIFT <= sx && stub.maxX >> SHARD_SHIFT >= sx
+                    && stub.minZ >> SHARD_SHIFT <= sz && stub.maxZ >> SHARD_SHIFT >= sz) {
+                    stubs.add(stub);
+                }
+            }
+            Long2ObjectMap<RegionStub[]> bucket = editShard(shards, this.shards, key);
+            if (stubs.isEmpty()) {
+                bucket.remove(key);
+            } else {
+                bucket.put(key, stubs.toArray(NO_STUBS));
+            }
+        }
+        Map<UUID, List<RegionStub>>[] owners = this.owners.clone();
+        for (UUID owner : touchedOwners) {
+            List<RegionStub> stubs = new ArrayList<>();
+            for (RegionStub stub : getPlayerRegions(owner)) {
+                if (!changes.containsKey(stub.id)) {
+                    stubs.add(stub);
+                }
+            }
+            for (RegionStub stub : changes.values()) {
+                if (stub != null && stub.owner.equals(owner)) {
+                    stubs.add(stub);
+                }
+            }
+            Map<UUID, List<RegionStub>> bucket = edit(owners, this.owners, owner);
+            if (stubs.isEmpty()) {
+                bucket.remove(owner);
+            } else {
+                bucket.put(owner, Collections.unmodifiableList(stubs));
+            }
+        }
+        return new RegionSnapshot(version + 1, size, regions, shards, owners, overrides);
+    }
+
+    /**
+     * Incremented on every change, so consumers can tell whether a cached answer is still current.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public RegionStub getRegion(UUID id) {
+        return regions[bucket(id.hashCode())].get(id);
+    }
+
+    public RegionStub getRegion(int x, int z) {
+        RegionStub[] stubs = getShard(RegionStub.shardKey(x >> SHARD_SHIFT, z >> SHARD_SHIFT));
+        if (stubs == null) {
+            return null;
+        }
+        for (RegionStub stub : stubs) {
+            if (x >= stub.minX && x <= stub.maxX && z >= stub.minZ && z <= stub.maxZ) {
+                return stub;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the owner of the region at the given block column, or {@code null} if there is none.
+     */
+    public UUID getOwner(int x, int z) {
+        RegionStub stub = getRegion(x, z);
+        return stub != null ? stub.owner : null;
+    }
+
+    public List<RegionStub> getPlayerRegions(UUID owner) {
+        return owners[bucket(owner.hashCode())].getOrDefault(owner, Collections.emptyList());
+    }
+
+    /**
+     * Returns all regions intersecting the given inclusive block box.
+     */
+    public List<RegionStub> getRegions(int minX, int minZ, int maxX, int maxZ) {
+        Set<RegionStub> result = new LinkedHashSet<>();
+        for (int sx = minX >> SHARD_SHIFT; sx <= maxX >> SHARD_SHIFT; sx++) {
+            for (int sz = minZ >> SHARD_SHIFT; sz <= maxZ >> SHARD_SHIFT; sz++) {
+                RegionStub[] stubs = getShard(RegionStub.shardKey(sx, sz));
+                if (stubs != null) {
+                    for (RegionStub stub : stubs) {
+                        if (stub.minX <= maxX && stub.maxX >= minX && stub.minZ <= maxZ && stub.maxZ >= minZ) {
+                            result.add(stub);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Whether the player currently bypasses region protection in this world.
+     */
+    public boolean hasOverride(UUID player) {
+        return overrides.contains(player);
+    }
+
+    private RegionStub[] getShard(long key) {
+        return shards[bucket((int) HashCommon.mix(key))].get(key);
+    }
+
+    private static int bucket(int hash) {
+        return (hash ^ hash >>> 16) & (BUCKETS - 1);
+    }
+
+    /**
+     * Returns the bucket of {@code key} in {@code buckets}, first replacing it with a private copy if it is still
+     * shared with {@code source}.
+     */
+    private static <V> Map<UUID, V> edit(Map<UUID, V>[] buckets, Map<UUID, V>[] source, UUID key) {
+        int i = bucket(key.hashCode());
+        if (buckets[i] == source[i]) {
+            buckets[i] = new HashMap<>(source[i]);
+        }
+        return buckets[i];
+    }
+
+    private static Long2ObjectMap<RegionStub[]> editShard(Long2ObjectMap<RegionStub[]>[] buckets, Long2ObjectMap<RegionStub[]>[] source, long key) {
+        int i = bucket((int) HashCommon.mix(key));
+        if (buckets[i] == source[i]) {
+            buckets[i] = new Long2ObjectOpenHashMap<>(source[i]);
+        }
+        return buckets[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Map<UUID, V>[] emptyBuckets() {
+        Map<UUID, V>[] buckets = new Map[BUCKETS];
+        Arrays.fill(buckets, Collections.emptyMap());
+        return buckets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Long2ObjectMap<RegionStub[]>[] emptyShardBuckets() {
+        Long2ObjectMap<RegionStub[]>[] buckets = new Long2ObjectMap[BUCKETS];
+        Arrays.fill(buckets, Long2ObjectMaps.emptyMap());
+        return buckets;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.craftlogic.regions;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.util.ResourceLocation;
+import ru.craftlogic.api.world.Location;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+import ru.craftlogic.regions.WorldRegionManager.RegionAbility;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Immutable copy of a region at one revision. Safe to hand to the I/O thread.
+ */
+public final class RegionState {
+    private static final Gson GSON = new Gson();
+
+    final UUID id;
+    final UUID owner;
+    final Location start, end;
+    final long flags;
+    final Object2IntMap<UUID> members;
+    final Set<ResourceLocation> rightClickItemUsage;
+    final int revision;
+
+    RegionState(Region region) {
+        this.id = region.id;
+        this.owner = region.owner;
+        this.start = region.getStart();
+        this.end = region.getEnd();
+        this.flags = region.flags;
+        this.members = region.members.isEmpty() ? Object2IntMaps.emptyMap()
+            : Object2IntMaps.unmodifiable(new Object2IntOpenHashMap<>(region.members));
+        this.rightClickItemUsage = region.rightClickItemUsage.isEmpty() ? Collections.emptySet()
+            : Collections.unmodifiableSet(new HashSet<>(region.rightClickItemUsage));
+        this.revision = region.revision;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Writes this region in the {@code regions.json} layout. Flags are only written when they differ from the defaults.
+     */
+    public void write(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("owner").value(owner.toString());
+        writer.name("start");
+        GSON.toJson(start.serialize(), writer);
+        writer.name("end");
+        GSON.toJson(end.serialize(), writer);
+        for (RegionFlag flag : RegionFlag.values()) {
+            boolean value = flag.get(flags);
+            if (value != flag.getDefault()) {
+                writer.name(flag.getName()).value(value);
+            }
+        }
+        boolean hasMembers = false;
+        for (Object2IntMap.Entry<UUID> entry : this.members.object2IntEntrySet()) {
+            if (entry.getIntValue() == 0) {
+                continue;
+            }
+            if (!hasMembers) {
+                writer.name("members").beginObject();
+                hasMembers = true;
+            }
+            writer.name(entry.getKey().toString()).beginArray();
+            for (RegionAbility ability : RegionAbility.values()) {
+                if ((entry.getIntValue() & ability.mask) != 0) {
+                    writer.value(ability.name().toLowerCase());
+                }
+            }
+            writer.endArray();
+        }
+        if (hasMembers) {
+            writer.endObject();
+        }
+        if (!this.rightClickItemUsage.isEmpty()) {
+            writer.name("rightClickItemUsage").beginArray();
+            for (ResourceLocation resourceLocation : this.rightClickItemUsage) {
+                writer.value(String.valueOf(resourceLocation));
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.craftlogic.regions;
+
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Backend holding the regions of one world. Reads are made from the server thread,
+ * {@link #write(RegionSaver.Snapshot)} from the region I/O thread.
+ */
+public interface RegionStorage {
+    /**
+     * Feeds the stubs of all stored regions to the consumer. Returns {@code null} if nothing was stored yet.
+     */
+    RegionFiles.Header readManifest(Consumer<RegionStub> consumer) throws IOException;
+
+    /**
+     * Reads the regions stored in a shard, that is, those whose minimum corner lies in it.
+     */
+    void readShard(long key, Consumer<Region> consumer) throws IOException;
+
+    void readAll(Consumer<Region> consumer) throws IOException;
+
+    /**
+     * Returns the ids of the stored regions the player is a member of,
+     * or {@code null} if the backend cannot tell without reading every region.
+     */
+    default Collection<UUID> findMemberRegions(UUID member) throws IOException {
+        return null;
+    }
+
+    void write(RegionSaver.Snapshot snapshot) throws IOException;
+
+    default void close() {}
+}
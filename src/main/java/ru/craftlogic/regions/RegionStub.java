@@ -0,0 +1,76 @@
+package ru.craftlogic.regions;
+
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.UUID;
+
+/**
+ * Manifest entry of a region: just enough to find its shards and count its owner's claims
+ * while the region itself is not loaded.
+ */
+public final class RegionStub {
+    /**
+     * Shards cover 512x512 blocks, the same area as a vanilla region file.
+     */
+    public static final int SHARD_SHIFT = 9;
+
+    final UUID id;
+    final UUID owner;
+    final int minX, minZ, maxX, maxZ;
+
+    public RegionStub(UUID id, UUID owner, int minX, int minZ, int maxX, int maxZ) {
+        this.id = id;
+        this.owner = WorldRegionManager.internPlayer(owner);
+        this.minX = minX;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxZ = maxZ;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxZ() {
+        return maxZ;
+    }
+
+    RegionStub withOwner(UUID owner) {
+        return new RegionStub(id, owner, minX, minZ, maxX, maxZ);
+    }
+
+    /**
+     * The shard the region is stored in: the one containing its minimum corner.
+     */
+    public long getHomeShard() {
+        return shardKey(minX >> SHARD_SHIFT, minZ >> SHARD_SHIFT);
+    }
+
+    public static long shardKey(int shardX, int shardZ) {
+        return ChunkPos.asLong(shardX, shardZ);
+    }
+
+    public static int shardX(long key) {
+        return (int) key;
+    }
+
+    public static int shardZ(long key) {
+        return (int) (key >> 32);
+    }
+}
@@ -0,0 +1,267 @@
+package ru.craftlogic.regions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Two-dimensional R-tree over inclusive block boxes (X/Z only, regions always span the full height).
+ * Uses Guttman's quadratic split; removals reinsert the entries of underflowing nodes.
+ */
+public class RegionTree<T> {
+    private static final int MAX_CHILDREN = 16;
+    private static final int MIN_CHILDREN = 6;
+
+    private Node root = new Node(0);
+
+    public void insert(T value, int minX, int minZ, int maxX, int maxZ) {
+        insert(new Leaf<>(value, minX, minZ, maxX, maxZ));
+    }
+
+    public boolean remove(T value, int minX, int minZ, int maxX, int maxZ) {
+        List<Leaf<T>> orphans = new ArrayList<>();
+        if (remove(root, value, minX, minZ, maxX, maxZ, orphans)) {
+            while (root.height > 0 && root.children.size() == 1) {
+                root = (Node) root.children.get(0);
+            }
+            for (Leaf<T> orphan : orphans) {
+                insert(orphan);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public List<T> query(int minX, int minZ, int maxX, int maxZ) {
+        List<T> result = new ArrayList<>();
+        query(root, minX, minZ, maxX, maxZ, result);
+        return result;
+    }
+
+    private void insert(Leaf<T> leaf) {
+        Node sibling = insert(root, leaf);
+        if (sibling != null) {
+            Node newRoot = new Node(root.height + 1);
+            newRoot.add(root);
+            newRoot.add(sibling);
+            root = newRoot;
+        }
+    }
+
+    private Node insert(Node node, Leaf<T> leaf) {
+        if (node.height == 0) {
+            node.add(leaf);
+        } else {
+            Node child = chooseSubtree(node, leaf);
+            Node sibling = insert(child, leaf);
+            node.include(leaf);
+            if (sibling != null) {
+                node.add(sibling);
+            }
+        }
+        return node.children.size() > MAX_CHILDREN ? split(node) : null;
+    }
+
+    private static Node chooseSubtree(Node node, Box box) {
+        Node best = null;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+        for (Box child : node.children) {
+            long enlargement = child.enlargement(box);
+            long area = child.area();
+            if (enlargement < bestEnlargement || enlargement == bestEnlargement && area < bestArea) {
+                best = (Node) child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    private static Node split(Node node) {
+        List<Box> items = new ArrayList<>(node.children);
+        int seedA = 0, seedB = 1;
+        long worst = Long.MIN_VALUE;
+        for (int i = 0; i < items.size(); i++) {
+            Box a = items.get(i);
+            for (int j = i + 1; j < items.size(); j++) {
+                Box b = items.get(j);
+                long waste = a.enlargement(b) - b.area();
+                if (waste > worst) {
+                    worst = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+        Node sibling = new Node(node.height);
+        node.children.clear();
+        node.add(items.get(seedA));
+        sibling.add(items.get(seedB));
+        items.remove(seedB);
+        items.remove(seedA);
+        while (!items.isEmpty()) {
+            if (node.children.size() + items.size() == MIN_CHILDREN) {
+                for (Box item : items) {
+                    node.add(item);
+                }
+                break;
+            }
+            if (sibling.children.size() + items.size() == MIN_CHILDREN) {
+                for (Box item : items) {
+                    sibling.add(item);
+                }
+                break;
+            }
+            int next = 0;
+            long maxPreference = -1;
+            for (int i = 0; i < items.size(); i++) {
+                Box item = items.get(i);
+                long preference = Math.abs(node.enlargement(item) - sibling.enlargement(item));
+                if (preference > maxPreference) {
+                    maxPreference = preference;
+                    next = i;
+                }
+            }
+            Box item = items.remove(next);
+            long a = node.enlargement(item);
+            long b = sibling.enlargement(item);
+            Node target;
+            if (a != b) {
+                target = a < b ? node : sibling;
+            } else if (node.area() != sibling.area()) {
+                target = node.area() < sibling.area() ? node : sibling;
+            } else {
+                target = node.children.size() <= sibling.children.size() ? node : sibling;
+            }
+            target.add(item);
+        }
+        return sibling;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean remove(Node node, T value, int minX, int minZ, int maxX, int maxZ, List<Leaf<T>> orphans) {
+        if (node.height == 0) {
+            for (Iterator<Box> it = node.children.iterator(); it.hasNext(); ) {
+                Leaf<T> leaf = (Leaf<T>) it.next();
+                if (leaf.value.equals(value)) {
+                    it.remove();
+                    node.recalculate();
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (Iterator<Box> it = node.children.iterator(); it.hasNext(); ) {
+            Node child = (Node) it.next();
+            if (child.contains(minX, minZ, maxX, maxZ) && remove(child, value, minX, minZ, maxX, maxZ, orphans)) {
+                if (child.children.size() < MIN_CHILDREN) {
+                    it.remove();
+                    collectLeaves(child, orphans);
+                }
+                node.recalculate();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectLeaves(Node node, List<Leaf<T>> result) {
+        for (Box child : node.children) {
+            if (node.height == 0) {
+                result.add((Leaf<T>) child);
+            } else {
+                collectLeaves((Node) child, result);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(Node node, int minX, int minZ, int maxX, int maxZ, List<T> result) {
+        for (Box child : node.children) {
+            if (child.intersects(minX, minZ, maxX, maxZ)) {
+                if (node.height == 0) {
+                    result.add(((Leaf<T>) child).value);
+                } else {
+                    query((Node) child, minX, minZ, maxX, maxZ, result);
+                }
+            }
+        }
+    }
+
+    private static abstract class Box {
+        int minX, minZ, maxX, maxZ;
+
+        long area() {
+            return (long) (maxX - minX + 1) * (long) (maxZ - minZ + 1);
+        }
+
+        long enlargement(Box box) {
+            long width = (long) Math.max(maxX, box.maxX) - Math.min(minX, box.minX) + 1;
+            long depth = (long) Math.max(maxZ, box.maxZ) - Math.min(minZ, box.minZ) + 1;
+            return width * depth - area();
+        }
+
+        boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return this.minX <= maxX && this.maxX >= minX && this.minZ <= maxZ && this.maxZ >= minZ;
+        }
+
+        boolean contains(int minX, int minZ, int maxX, int maxZ) {
+            return this.minX <= minX && this.maxX >= maxX && this.minZ <= minZ && this.maxZ >= maxZ;
+        }
+    }
+
+    private static class Leaf<T> extends Box {
+        final T value;
+
+        Leaf(T value, int minX, int minZ, int maxX, int maxZ) {
+            this.value = value;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+        }
+    }
+
+    private static class Node extends Box {
+        final int height;
+        final List<Box> children = new ArrayList<>(MAX_CHILDREN + 1);
+
+        Node(int height) {
+            this.height = height;
+        }
+
+        void add(Box box) {
+            if (children.isEmpty()) {
+                minX = box.minX;
+                minZ = box.minZ;
+                maxX = box.maxX;
+                maxZ = box.maxZ;
+            } else {
+                include(box);
+            }
+            children.add(box);
+        }
+
+        void include(Box box) {
+            minX = Math.min(minX, box.minX);
+            minZ = Math.min(minZ, box.minZ);
+            maxX = Math.max(maxX, box.maxX);
+            maxZ = Math.max(maxZ, box.maxZ);
+        }
+
+        void recalculate() {
+            if (!children.isEmpty()) {
+                Box first = children.get(0);
+                minX = first.minX;
+                minZ = first.minZ;
+                maxX = first.maxX;
+                maxZ = first.maxZ;
+                for (int i = 1; i < children.size(); i++) {
+                    include(children.get(i));
+                }
+            }
+        }
+    }
+}
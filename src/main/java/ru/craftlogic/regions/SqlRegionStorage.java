@@ -0,0 +1,234 @@
+package ru.craftlogic.regions;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Stores regions in an embedded SQL database (SQLite, H2, ...) reached through JDBC. The driver is not bundled,
+ * it has to be on the server classpath. Each region is one row holding its JSON body, indexed by home shard,
+ * and members are kept in a separate table indexed by player, so saves touch only changed rows. There is no owner index:
+ * lookups by owner are answered by the in-memory stubs, which cover every stored region.
+ * <p>
+ * Reads go through their own connection, so a chunk load or a member lookup on the server thread never waits for the
+ * save transaction running on the I/O thread. SQLite databases are switched to WAL mode for that, otherwise readers
+ * would fail while a save commits.
+ */
+public class SqlRegionStorage implements RegionStorage {
+    private static final Logger LOGGER = LogManager.getLogger("SqlRegionStorage");
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS region_meta (id INT PRIMARY KEY, enabled BOOLEAN NOT NULL, journal BIGINT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS regions (id CHAR(36) PRIMARY KEY, owner CHAR(36) NOT NULL, shard_x INT NOT NULL, shard_z INT NOT NULL,"
+            + " min_x INT NOT NULL, min_z INT NOT NULL, max_x INT NOT NULL, max_z INT NOT NULL, data TEXT NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS regions_shard ON regions (shard_x, shard_z)",
+        "CREATE TABLE IF NOT EXISTS region_members (region CHAR(36) NOT NULL, member CHAR(36) NOT NULL, PRIMARY KEY (region, member))",
+        "CREATE INDEX IF NOT EXISTS region_members_member ON region_members (member)"
+    };
+
+    private final WorldRegionManager manager;
+    private final String url;
+    private final Connection connection;
+    private final Connection readConnection;
+
+    public SqlRegionStorage(WorldRegionManager manager, String url) throws IOException {
+        this.manager = manager;
+        this.url = url;
+        try {
+            this.connection = DriverManager.getConnection(url);
+            if (url.startsWith("jdbc:sqlite:")) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA journal_mode=WAL");
+                }
+            }
+            this.connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.executeUpdate(sql);
+                }
+            }
+            this.connection.commit();
+            this.readConnection = DriverManager.getConnection(url);
+            this.readConnection.setReadOnly(true);
+        } catch (SQLException e) {
+            throw new IOException("Failed to open region database " + url, e);
+        }
+    }
+
+    @Override
+    public RegionFiles.Header readManifest(Consumer<RegionStub> consumer) throws IOException {
+        synchronized (readConnection) {
+            try (Statement statement = readConnection.createStatement()) {
+                RegionFiles.Header header;
+                try (ResultSet meta = statement.executeQuery("SELECT enabled, journal FROM region_meta WHERE id = 0")) {
+                    if (!meta.next()) {
+                        return null;
+                    }
+                    header = new RegionFiles.Header(meta.getBoolean(1), meta.getLong(2));
+                }
+                try (ResultSet rows = statement.executeQuery("SELECT id, owner, min_x, min_z, max_x, max_z FROM regions")) {
+                    while (rows.next()) {
+                        consumer.accept(new RegionStub(UUID.fromString(rows.getString(1)), UUID.fromString(rows.getString(2)),
+                            rows.getInt(3), rows.getInt(4), rows.getInt(5), rows.getInt(6)));
+                    }
+                }
+                return header;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void readShard(long key, Consumer<Region> consumer) throws IOException {
+        synchronized (readConnection) {
+            try (PreparedStatement statement = readConnection.prepareStatement("SELECT id, data FROM regions WHERE shard_x = ? AND shard_z = ?")) {
+                statement.setInt(1, RegionStub.shardX(key));
+                statement.setInt(2, RegionStub.shardZ(key));
+                readRegions(statement, consumer);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void readAll(Consumer<Region> consumer) throws IOException {
+        synchronized (readConnection) {
+            try (PreparedStatement statement = readConnection.prepareStatement("SELECT id, data FROM regions")) {
+                readRegions(statement, consumer);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void readRegions(PreparedStatement statement, Consumer<Region> consumer) throws SQLException, IOException {
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                UUID id = UUID.fromString(rows.getString(1));
+                consumer.accept(manager.readRegion(id, new JsonReader(new StringReader(rows.getString(2)))));
+            }
+        }
+    }
+
+    @Override
+    public Collection<UUID> findMemberRegions(UUID member) throws IOException {
+        synchronized (readConnection) {
+            try (PreparedStatement statement = readConnection.prepareStatement("SELECT region FROM region_members WHERE member = ?")) {
+                statement.setString(1, member.toString());
+                List<UUID> result = new ArrayList<>();
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        result.add(UUID.fromString(rows.getString(1)));
+                    }
+                }
+                return result;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the rows of every region in the snapshot and deletes the rows of changed shards' regions
+     * that are gone, all in one transaction. The manifest needs no separate write, stubs are read from the same rows.
+     */
+    @Override
+    public synchronized void write(RegionSaver.Snapshot snapshot) throws IOException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT id FROM regions WHERE shard_x = ? AND shard_z = ?");
+             PreparedStatement deleteRegion = connection.prepareStatement("DELETE FROM regions WHERE id = ?");
+             PreparedStatement deleteMembers = connection.prepareStatement("DELETE FROM region_members WHERE region = ?");
+             PreparedStatement insertRegion = connection.prepareStatement("INSERT INTO regions (id, owner, shard_x, shard_z, min_x, min_z, max_x, max_z, data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement insertMember = connection.prepareStatement("INSERT INTO region_members (region, member) VALUES (?, ?)");
+             PreparedStatement deleteMeta = connection.prepareStatement("DELETE FROM region_meta");
+             PreparedStatement insertMeta = connection.prepareStatement("INSERT INTO region_meta (id, enabled, journal) VALUES (0, ?, ?)")) {
+            int written = 0;
+            for (Long2ObjectMap.Entry<RegionSaver.Shard> entry : snapshot.shards.long2ObjectEntrySet()) {
+                int shardX = RegionStub.shardX(entry.getLongKey());
+                int shardZ = RegionStub.shardZ(entry.getLongKey());
+                RegionSaver.Shard shard = entry.getValue();
+                List<String> removed = new ArrayList<>();
+                select.setInt(1, shardX);
+                select.setInt(2, shardZ);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        String id = rows.getString(1);
+                        if (!shard.keep.contains(UUID.fromString(id))) {
+                            removed.add(id);
+                        }
+                    }
+                }
+                for (String id : removed) {
+                    delete(deleteRegion, deleteMembers, id);
+                }
+                for (RegionState state : shard.loaded.values()) {
+                    String id = state.id.toString();
+                    delete(deleteRegion, deleteMembers, id);
+                    StringWriter data = new StringWriter();
+                    state.write(new JsonWriter(data));
+                    insertRegion.setString(1, id);
+                    insertRegion.setString(2, state.owner.toString());
+                    insertRegion.setInt(3, shardX);
+                    insertRegion.setInt(4, shardZ);
+                    insertRegion.setInt(5, Math.min(state.start.getBlockX(), state.end.getBlockX()));
+                    insertRegion.setInt(6, Math.min(state.start.getBlockZ(), state.end.getBlockZ()));
+                    insertRegion.setInt(7, Math.max(state.start.getBlockX(), state.end.getBlockX()));
+                    insertRegion.setInt(8, Math.max(state.start.getBlockZ(), state.end.getBlockZ()));
+                    insertRegion.setString(9, data.toString());
+                    insertRegion.executeUpdate();
+                    for (UUID member : state.members.keySet()) {
+                        insertMember.setString(1, id);
+                        insertMember.setString(2, member.toString());
+                        insertMember.addBatch();
+                    }
+                    insertMember.executeBatch();
+                    written++;
+                }
+            }
+            deleteMeta.executeUpdate();
+            insertMeta.setBoolean(1, snapshot.enabled);
+            insertMeta.setLong(2, snapshot.sequence);
+            insertMeta.executeUpdate();
+            connection.commit();
+            LOGGER.info("Saved {} regions to {}", written, url);
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {}
+            throw new IOException(e);
+        }
+    }
+
+    private static void delete(PreparedStatement deleteRegion, PreparedStatement deleteMembers, String id) throws SQLException {
+        deleteRegion.setString(1, id);
+        deleteRegion.executeUpdate();
+        deleteMembers.setString(1, id);
+        deleteMembers.executeUpdate();
+    }
+
+    @Override
+    public synchronized void close() {
+        synchronized (readConnection) {
+            try {
+                readConnection.close();
+            } catch (SQLException e) {
+                LOGGER.error("Failed to close region database " + url, e);
+            }
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.error("Failed to close region database " + url, e);
+        }
+    }
+}
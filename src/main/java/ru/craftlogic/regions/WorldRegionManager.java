@@ -1,170 +1,1028 @@
 package ru.craftlogic.regions;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.gson.JsonObject;
-import net.minecraft.util.JsonUtils;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.entity.Entity;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.craftlogic.api.math.Bounding;
 import ru.craftlogic.api.server.Server;
-import ru.craftlogic.api.util.ConfigurableManager;
 import ru.craftlogic.api.world.Dimension;
 import ru.craftlogic.api.world.Location;
 import ru.craftlogic.api.world.OfflinePlayer;
 import ru.craftlogic.api.world.World;
 import ru.craftlogic.regions.network.message.MessageDeleteRegion;
+import ru.craftlogic.regions.network.message.MessageRegions;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class WorldRegionManager extends ConfigurableManager {
+import static ru.craftlogic.regions.RegionStub.SHARD_SHIFT;
+
+/**
+ * Regions of one world. Region bodies are stored in 512x512 block shards and loaded only while a chunk of a shard
+ * they overlap is loaded, plus {@link #RELEASE_DELAY} ticks. The manifest keeps a stub of every region, so lookups
+ * by id or owner work for unloaded regions too.
+ */
+public class WorldRegionManager {
     private static final Logger LOGGER = LogManager.getLogger("WorldRegionManager");
+    private static final int COMPACT_THRESHOLD = 1000;
+    private static final int RELEASE_DELAY = 6000;
+    private static final int SWEEP_INTERVAL = 600;
+    private static final JsonParser JSON_PARSER = new JsonParser();
+    private static final Interner<UUID> PLAYER_IDS = Interners.newWeakInterner();
 
     final Set<UUID> regionAccessOverrides = new HashSet<>();
-    private final Map<UUID, Region> regions = new HashMap<>();
+    private Index index = new Index();
+    private volatile RegionSnapshot snapshot = RegionSnapshot.EMPTY;
+    private final LongSet loadedShards = new LongOpenHashSet();
+    private final Long2IntOpenHashMap shardChunks = new Long2IntOpenHashMap();
+    private final Long2LongMap shardTouched = new Long2LongOpenHashMap();
+    private final LongSet dirtyShards = new LongOpenHashSet();
+    /**
+     * Source of region revisions. Shared by all regions of the world and never reset, so a region reloaded from storage
+     * gets a revision no client can hold yet.
+     */
+    private final AtomicInteger revisionClock = new AtomicInteger();
+    private final Server server;
+    private final Path dir;
+    private final RegionManager regionManager;
+    private final RegionJournal journal;
+    private RegionStorage storage;
+    private RegionSaver saver;
     private final Dimension dimension;
     private final boolean defaultPvP;
     boolean enabled = true;
-
-    public WorldRegionManager(Server server, World world, boolean defaultPvP, Logger logger) {
-        super(server, world.getDir().resolve("regions.json"), logger);
+    int indexRevision;
+    private boolean dirty, manifestDirty;
+    private long ticks;
+
+    public WorldRegionManager(RegionManager regionManager, Server server, World world, boolean defaultPvP) {
+        this.server = server;
+        this.dir = world.getDir();
+        this.regionManager = regionManager;
+        this.journal = new RegionJournal(dir);
         this.dimension = world.getDimension();
         this.defaultPvP = defaultPvP;
     }
 
-    @Override
-    protected String getDefaultConfig() {
-        return null;
+    /**
+     * Returns the latest published snapshot of this world's regions. Safe to call from any thread.
+     */
+    public RegionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes the stub changes recorded since the last call as a new snapshot version.
+     */
+    private void publishSnapshot() {
+        if (!index.changes.isEmpty()) {
+            snapshot = snapshot.with(index.changes);
+            index.changes.clear();
+        }
+    }
+
+    /**
+     * Toggles protection bypass for the player and returns whether it is now on.
+     */
+    boolean toggleAccessOverride(UUID player) {
+        boolean result = !regionAccessOverrides.remove(player) && regionAccessOverrides.add(player);
+        snapshot = snapshot.withOverrides(regionAccessOverrides);
+        return result;
+    }
+
+    int getDimensionId() {
+        return this.dimension.getVanilla().getId();
+    }
+
+    public String getName() {
+        return this.dimension.getName();
+    }
+
+    /**
+     * Saves pending changes, waits for the I/O thread and releases the storage, then returns a loader for this world.
+     * Call {@link Loader#run()} from any thread and {@link Loader#publish()} on the server thread afterwards.
+     */
+    Loader startLoading() {
+        save();
+        closeStorage();
+        return new Loader();
+    }
+
+    /**
+     * Waits for pending writes and releases the storage. Called when the world unloads.
+     */
+    void closeStorage() {
+        if (this.storage != null) {
+            RegionSaver.awaitAll();
+            this.storage.close();
+            this.storage = null;
+            this.saver = null;
+        }
+    }
+
+    /**
+     * Reads one region object in the {@code regions.json} layout, field by field.
+     */
+    Region readRegion(UUID id, JsonReader reader) throws IOException {
+        int dimension = getDimensionId();
+        UUID owner = null;
+        Location start = null, end = null;
+        long flags = RegionFlag.getDefaults();
+        Set<ResourceLocation> items = new HashSet<>();
+        Object2IntMap<UUID> members = new Object2IntOpenHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "owner": owner = UUID.fromString(reader.nextString()); break;
+                case "start": start = Location.deserialize(dimension, JSON_PARSER.parse(reader).getAsJsonObject()); break;
+                case "end": end = Location.deserialize(dimension, JSON_PARSER.parse(reader).getAsJsonObject()); break;
+                case "rightClickItemUsage": {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        items.add(new ResourceLocation(reader.nextString()));
+                    }
+                    reader.endArray();
+                    break;
+                }
+                case "members": {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        UUID member = internPlayer(UUID.fromString(reader.nextName()));
+                        int abilities = 0;
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            abilities |= RegionAbility.valueOf(reader.nextString().toUpperCase()).mask;
+                        }
+                        reader.endArray();
+                        members.put(member, abilities);
+                    }
+                    reader.endObject();
+                    break;
+                }
+                default: {
+                    RegionFlag flag = RegionFlag.byName(name);
+                    if (flag != null) {
+                        flags = flag.set(flags, reader.nextBoolean());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+            }
+        }
+        reader.endObject();
+        if (owner == null || start == null || end == null) {
+            throw new IOException("Region " + id + " is missing owner or bounds");
+        }
+        return new Region(id, owner, start, end, flags, items, members);
+    }
+
+    /**
+     * Appends the current state of a changed region to the journal and marks its shard for the next save.
+     * Does nothing if the region has not changed since it was last written.
+     * If the journal cannot be written, the next tick saves a snapshot instead.
+     */
+    public void logChange(Region region) {
+        if (region.revision != region.journaledRevision && isIndexed(region)) {
+            region.journaledRevision = region.revision;
+            dirtyShards.add(getHomeShard(region));
+            if (!journal.appendUpdate(region.getState())) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Requests a save on the next tick. Regions changed without {@link #logChange} are still written, since every shard
+     * holding a loaded region and the manifest are marked dirty.
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+        if (dirty) {
+            for (Region region : index.regions.values()) {
+                dirtyShards.add(getHomeShard(region));
+            }
+            manifestDirty = true;
+        }
+    }
+
+    /**
+     * Called every server tick. Saves when requested or when the journal has grown past {@link #COMPACT_THRESHOLD}
+     * entries, and periodically releases shards no chunk has used for {@link #RELEASE_DELAY} ticks.
+     */
+    void tick() {
+        ticks++;
+        if (dirty || journal.size() >= COMPACT_THRESHOLD) {
+            save();
+        }
+        if (ticks % SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+    }
+
+    void onChunkLoad(int chunkX, int chunkZ) {
+        long key = RegionStub.shardKey(chunkX >> (SHARD_SHIFT - 4), chunkZ >> (SHARD_SHIFT - 4));
+        shardChunks.addTo(key, 1);
+        loadShard(key);
+    }
+
+    void onChunkUnload(int chunkX, int chunkZ) {
+        long key = RegionStub.shardKey(chunkX >> (SHARD_SHIFT - 4), chunkZ >> (SHARD_SHIFT - 4));
+        if (shardChunks.addTo(key, -1) <= 1) {
+            shardChunks.remove(key);
+            shardTouched.put(key, ticks);
+        }
     }
 
-    @Override
-    protected void load(JsonObject regions) {
-        JsonElement enabled = regions.remove("enabled");
-        if (enabled != null) {
-            this.enabled = enabled.getAsBoolean();
+    /**
+     * Makes sure every region overlapping the shard is loaded and keeps it loaded until the shard is released.
+     */
+    private void loadShard(long key) {
+        shardTouched.put(key, ticks);
+        if (!loadedShards.add(key)) {
+            return;
+        }
+        Set<UUID> ids = index.shardIndex.get(key);
+        if (ids == null) {
+            return;
+        }
+        Long2ObjectMap<Set<UUID>> missing = new Long2ObjectOpenHashMap<>();
+        for (UUID id : ids) {
+            if (!index.regions.containsKey(id)) {
+                long home = index.stubs.get(id).getHomeShard();
+                Set<UUID> group = missing.get(home);
+                if (group == null) {
+                    missing.put(home, group = new HashSet<>());
+                }
+                group.add(id);
+            }
+        }
+        for (Long2ObjectMap.Entry<Set<UUID>> entry : missing.long2ObjectEntrySet()) {
+            loadRegions(entry.getLongKey(), entry.getValue());
         }
-        for (Map.Entry<String, JsonElement> entry : regions.entrySet()) {
-            UUID id = UUID.fromString(entry.getKey());
-            this.regions.put(id, new Region(this.dimension, id, entry.getValue().getAsJsonObject()));
+    }
+
+    private void loadShards(int startX, int startZ, int endX, int endZ) {
+        for (int sx = startX >> SHARD_SHIFT; sx <= endX >> SHARD_SHIFT; sx++) {
+            for (int sz = startZ >> SHARD_SHIFT; sz <= endZ >> SHARD_SHIFT; sz++) {
+                loadShard(RegionStub.shardKey(sx, sz));
+            }
         }
-        LOGGER.info("Loaded {} regions for world {}", this.regions.size(), this.dimension.getName());
     }
 
-    @Override
-    protected void save(JsonObject regions) {
-        regions.addProperty("enabled", enabled);
-        for (Map.Entry<UUID, Region> entry : this.regions.entrySet()) {
-            regions.add(entry.getKey().toString(), entry.getValue().toJson());
+    /**
+     * Loads the given regions stored in one shard. States still waiting for the I/O thread take precedence
+     * over the file, which is stale until they are written.
+     */
+    private void loadRegions(long home, Set<UUID> ids) {
+        for (Iterator<UUID> it = ids.iterator(); it.hasNext(); ) {
+            RegionState pending = saver.getPending(home, it.next());
+            if (pending != null) {
+                addLoaded(new Region(pending));
+                it.remove();
+            }
+        }
+        if (!ids.isEmpty()) {
+            try {
+                storage.readShard(home, region -> {
+                    if (ids.contains(region.id) && index.stubs.containsKey(region.id) && !index.regions.containsKey(region.id)) {
+                        addLoaded(region);
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.error("Failed to load region shard " + RegionStub.shardX(home) + "," + RegionStub.shardZ(home) + " of world " + this.dimension.getName(), e);
+            }
         }
-        LOGGER.info("Saved {} regions for world {}", this.regions.size(), this.dimension.getName());
+    }
+
+    /**
+     * Releases shards without loaded chunks that were last used {@link #RELEASE_DELAY} ticks ago and unloads
+     * the regions that no longer overlap a loaded shard. Pending changes are saved first.
+     */
+    private void sweep() {
+        for (LongIterator it = loadedShards.iterator(); it.hasNext(); ) {
+            long key = it.nextLong();
+            if (shardChunks.get(key) <= 0 && ticks - shardTouched.get(key) >= RELEASE_DELAY) {
+                it.remove();
+                shardTouched.remove(key);
+            }
+        }
+        List<Region> unused = new ArrayList<>();
+        for (Region region : index.regions.values()) {
+            if (!isRetained(region)) {
+                unused.add(region);
+            }
+        }
+        if (!unused.isEmpty()) {
+            if (!dirtyShards.isEmpty() || manifestDirty) {
+                save();
+            }
+            for (Region region : unused) {
+                removeLoaded(region);
+            }
+            LOGGER.debug("Unloaded {} regions of world {}", unused.size(), this.dimension.getName());
+        }
+    }
+
+    private boolean isRetained(Region region) {
+        for (int sx = region.minX >> SHARD_SHIFT; sx <= region.maxX >> SHARD_SHIFT; sx++) {
+            for (int sz = region.minZ >> SHARD_SHIFT; sz <= region.maxZ >> SHARD_SHIFT; sz++) {
+                if (loadedShards.contains(RegionStub.shardKey(sx, sz))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the changed shards, and the manifest if regions were added, removed or changed owner, to the I/O thread.
+     * Regions of a changed shard that are not loaded are copied over from its current file there.
+     */
+    public void save() {
+        dirty = false;
+        if (saver == null || dirtyShards.isEmpty() && !manifestDirty) {
+            return;
+        }
+        try {
+            journal.rotate();
+        } catch (IOException e) {
+            LOGGER.error("Failed to rotate the region journal of world " + getName(), e);
+        }
+        Long2ObjectMap<RegionSaver.Shard> shards = new Long2ObjectOpenHashMap<>();
+        for (LongIterator it = dirtyShards.iterator(); it.hasNext(); ) {
+            long key = it.nextLong();
+            Map<UUID, RegionState> loaded = new HashMap<>();
+            Set<UUID> keep = new HashSet<>();
+            for (UUID id : index.shardIndex.getOrDefault(key, Collections.emptySet())) {
+                if (index.stubs.get(id).getHomeShard() == key) {
+                    keep.add(id);
+                    Region region = index.regions.get(id);
+                    if (region != null) {
+                        loaded.put(id, region.getState());
+                    }
+                }
+            }
+            shards.put(key, new RegionSaver.Shard(loaded, keep));
+        }
+        dirtyShards.clear();
+        Collection<RegionStub> manifest = manifestDirty ? new ArrayList<>(index.stubs.values()) : null;
+        manifestDirty = false;
+        saver.schedule(new RegionSaver.Snapshot(enabled, journal.getSequence(), shards, manifest));
+    }
+
+    /**
+     * Writes all regions of this world, loaded or not, as JSON to {@code regions.export.json}, whatever the storage format is.
+     */
+    public Path export() {
+        Path target = dir.resolve("regions.export.json");
+        if (saver != null) {
+            save();
+            saver.export(target, enabled, journal.getSequence());
+        }
+        return target;
+    }
+
+    /**
+     * Blocks until all scheduled saves of this world are on disk.
+     */
+    public void awaitSave() {
+        if (saver != null) {
+            saver.await();
+        }
+    }
+
+    /**
+     * Estimated heap footprint of this world's loaded regions and stubs.
+     */
+    public RegionMemory getMemoryUsage() {
+        long regionBytes = 0, stubBytes = 0;
+        for (Region region : index.regions.values()) {
+            regionBytes += RegionMemory.sizeOf(region);
+        }
+        for (RegionStub stub : index.stubs.values()) {
+            stubBytes += RegionMemory.sizeOf(stub);
+        }
+        return new RegionMemory(getName(), index.regions.size(), index.stubs.size(), regionBytes, stubBytes);
+    }
+
+    /**
+     * Drops all regions and stubs of this world from the in-memory indexes, including the server-wide id index.
+     * Chunk counts are kept, they follow the world rather than the region data.
+     */
+    void unloadRegions() {
+        for (Region region : index.regions.values()) {
+            regionManager.regionsById.remove(region.id, region);
+        }
+        this.index = new Index();
+        this.indexRevision++;
+        this.snapshot = RegionSnapshot.of(snapshot.getVersion() + 1, Collections.emptyList(), regionAccessOverrides);
+        this.loadedShards.clear();
+        this.shardTouched.clear();
+        this.dirtyShards.clear();
+        this.manifestDirty = false;
     }
 
     public Region createRegion(Location start, Location end, UUID owner) {
         UUID id;
-        while (regions.containsKey(id = UUID.randomUUID())) {}
-        Region region = new Region(id, owner, start, end, defaultPvP, false, false, false, false, true, false, true, true, false, new HashSet<>(), new HashMap<>());
-        regions.put(id, region);
-        setDirty(true);
+        while (index.stubs.containsKey(id = UUID.randomUUID())) {}
+        Region region = new Region(id, owner, start, end, RegionFlag.PVP.set(RegionFlag.getDefaults(), defaultPvP), new HashSet<>(), new Object2IntOpenHashMap<>());
+        index.addStub(stubOf(region));
+        addLoaded(region);
+        dirtyShards.add(getHomeShard(region));
+        manifestDirty = true;
+        if (!journal.appendUpdate(region.getState())) {
+            dirty = true;
+        }
+        publishSnapshot();
         return region;
     }
 
+    /**
+     * Returns the currently loaded regions only.
+     */
     public Collection<Region> getAllRegions() {
-        return this.regions.values();
+        return index.regions.values();
     }
 
+    /**
+     * Returns the region with the given id, loading it from its shard if necessary.
+     */
     public Region getRegion(UUID id) {
-        return regions.get(id);
+        Region region = index.regions.get(id);
+        if (region == null) {
+            RegionStub stub = index.stubs.get(id);
+            if (stub != null) {
+                loadRegions(stub.getHomeShard(), new HashSet<>(Collections.singleton(id)));
+                region = index.regions.get(id);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Returns the region at the location, first loading its shard if the column is claimed and the shard is not loaded,
+     * so far away positions such as a bed or a command target resolve too. This may read from storage; event handlers
+     * use {@link #getRegion(int, int)} instead.
+     */
+    public Region getRegion(Location location) {
+        int x = location.getBlockX(), z = location.getBlockZ();
+        long shard = RegionStub.shardKey(x >> SHARD_SHIFT, z >> SHARD_SHIFT);
+        if (!loadedShards.contains(shard) && isClaimed(x >> 4, z >> 4)) {
+            loadShard(shard);
+        }
+        return getRegion(x, z);
+    }
+
+    /**
+     * Whether any region of this world, loaded or not, touches the chunk. A {@code false} answer costs one hash probe
+     * and guarantees there is no region anywhere in the chunk.
+     */
+    public boolean isClaimed(int chunkX, int chunkZ) {
+        return index.claimedChunks.containsKey(ChunkPos.asLong(chunkX, chunkZ));
+    }
+
+    /**
+     * Returns the region at the given block column among the loaded shards, without any I/O. Shards are loaded along
+     * with their chunks, so every position an event can touch is covered.
+     */
+    public Region getRegion(int x, int z) {
+        List<Region> candidates = index.chunkIndex.get(ChunkPos.asLong(x >> 4, z >> 4));
+        if (candidates != null) {
+            for (int i = 0, size = candidates.size(); i < size; i++) {
+                Region region = candidates.get(i);
+                if (region.contains(x, z)) {
+                    return region;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Batch form of {@link #getRegion(int, int)} for explosions and pistons: the index is probed once per distinct chunk
+     * rather than once per position. The result is parallel to {@code positions}, with {@code null} outside any region.
+     */
+    public Region[] getRegions(List<BlockPos> positions) {
+        Region[] result = new Region[positions.size()];
+        ChunkLookup lookup = new ChunkLookup();
+        for (int i = 0; i < result.length; i++) {
+            BlockPos pos = positions.get(i);
+            result[i] = lookup.get(pos.getX(), pos.getZ());
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #getRegions(List)} for the block columns the entities stand in.
+     */
+    public Region[] getEntityRegions(List<? extends Entity> entities) {
+        Region[] result = new Region[entities.size()];
+        ChunkLookup lookup = new ChunkLookup();
+        for (int i = 0; i < result.length; i++) {
+            Entity entity = entities.get(i);
+            result[i] = lookup.get(MathHelper.floor(entity.posX), MathHelper.floor(entity.posZ));
+        }
+        return result;
+    }
+
+    public List<Region> getRegionsInChunk(int chunkX, int chunkZ) {
+        List<Region> candidates = index.chunkIndex.get(ChunkPos.asLong(chunkX, chunkZ));
+        return candidates != null ? candidates : Collections.emptyList();
+    }
+
+    /**
+     * Returns all regions intersecting the given inclusive block box, loading the shards it covers.
+     */
+    public List<Region> getRegions(int startX, int startZ, int endX, int endZ) {
+        int minX = Math.min(startX, endX), minZ = Math.min(startZ, endZ);
+        int maxX = Math.max(startX, endX), maxZ = Math.max(startZ, endZ);
+        loadShards(minX, minZ, maxX, maxZ);
+        return index.tree.query(minX, minZ, maxX, maxZ);
+    }
+
+    /**
+     * Returns the loaded regions intersecting the given inclusive block box without loading any shard. Complete for
+     * boxes inside loaded chunks, since their shards stay loaded with them.
+     */
+    public List<Region> getLoadedRegions(int minX, int minZ, int maxX, int maxZ) {
+        return index.tree.query(minX, minZ, maxX, maxZ);
+    }
+
+    public List<Region> getRegions(Bounding bounding) {
+        return getRegions(
+            (int) Math.floor(bounding.getStartX()), (int) Math.floor(bounding.getStartZ()),
+            (int) Math.floor(bounding.getEndX()), (int) Math.floor(bounding.getEndZ())
+        );
     }
 
     public List<Region> getPlayerRegions(UUID owner) {
         List<Region> result = new ArrayList<>();
-        for (Region region : regions.values()) {
-            if (region.owner.equals(owner)) {
+        for (UUID id : new ArrayList<>(index.ownerIndex.getOrDefault(owner, Collections.emptySet()))) {
+            Region region = getRegion(id);
+            if (region != null) {
                 result.add(region);
             }
         }
         return result;
     }
 
+    public int getPlayerRegionCount(UUID owner) {
+        return index.ownerIndex.getOrDefault(owner, Collections.emptySet()).size();
+    }
+
+    /**
+     * Returns the regions the player is a member of. Unloaded regions are only included
+     * if the storage can look them up by member.
+     */
+    public List<Region> getMemberRegions(UUID member) {
+        Set<Region> result = new LinkedHashSet<>(index.memberIndex.getOrDefault(member, Collections.emptySet()));
+        Collection<UUID> stored = null;
+        try {
+            stored = storage != null ? storage.findMemberRegions(member) : null;
+        } catch (IOException e) {
+            LOGGER.error("Failed to look up regions of member " + member, e);
+        }
+        if (stored != null) {
+            for (UUID id : stored) {
+                if (!index.regions.containsKey(id)) {
+                    Region region = getRegion(id);
+                    if (region != null && region.isMember(member)) {
+                        result.add(region);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
     public Region deleteRegion(UUID id) {
-        Region region;
-        if ((region = regions.remove(id)) != null) {
+        Region region = getRegion(id);
+        if (region != null) {
+            removeLoaded(region);
+            index.removeStub(id);
+            dirtyShards.add(getHomeShard(region));
+            manifestDirty = true;
+            regionManager.forgetRegion(id);
             server.broadcastPacket(new MessageDeleteRegion(id));
-            setDirty(true);
+            if (!journal.appendDelete(id)) {
+                dirty = true;
+            }
+            publishSnapshot();
         }
         return region;
     }
 
-    private static Map<UUID, Set<RegionAbility>> parseMembers(JsonObject members) {
-        Map<UUID, Set<RegionAbility>> result = new HashMap<>();
-        for (Map.Entry<String, JsonElement> entry : members.entrySet()) {
-            UUID id = UUID.fromString(entry.getKey());
-            Set<RegionAbility> abilities = new HashSet<>();
-            for (JsonElement a : entry.getValue().getAsJsonArray()) {
-                abilities.add(RegionAbility.valueOf(a.getAsString().toUpperCase()));
-            }
-            result.put(id, abilities);
+    private static RegionStub stubOf(Region region) {
+        return new RegionStub(region.id, region.owner, region.minX, region.minZ, region.maxX, region.maxZ);
+    }
+
+    /**
+     * Flags in the parameter order of the deprecated boolean {@link Region} constructor.
+     */
+    private static long legacyFlags(boolean... values) {
+        RegionFlag[] order = {
+            RegionFlag.PVP, RegionFlag.RESTRICT_COMMANDS, RegionFlag.EXPLOSIONS, RegionFlag.PROJECTILES, RegionFlag.PROTECTING_HOSTILES,
+            RegionFlag.PREVENTING_ANIMAL_ATTACKS, RegionFlag.PREVENTING_MOB_ATTACKS, RegionFlag.MOB_SPAWN, RegionFlag.FALL_DAMAGE, RegionFlag.TELEPORT_SPAWN
+        };
+        long flags = 0;
+        for (int i = 0; i < order.length; i++) {
+            flags = order[i].set(flags, values[i]);
+        }
+        return flags;
+    }
+
+    private static Object2IntMap<UUID> legacyMembers(Map<UUID, Set<RegionAbility>> members) {
+        Object2IntMap<UUID> result = new Object2IntOpenHashMap<>(members.size());
+        for (Map.Entry<UUID, Set<RegionAbility>> entry : members.entrySet()) {
+            result.put(internPlayer(entry.getKey()), RegionAbility.toMask(entry.getValue()));
         }
         return result;
     }
 
+    private static long getHomeShard(Region region) {
+        return RegionStub.shardKey(region.minX >> SHARD_SHIFT, region.minZ >> SHARD_SHIFT);
+    }
+
+    private void addLoaded(Region region) {
+        index.add(region);
+        indexRevision++;
+        regionManager.regionsById.put(region.id, region);
+    }
+
+    private void removeLoaded(Region region) {
+        index.remove(region);
+        indexRevision++;
+        regionManager.regionsById.remove(region.id, region);
+    }
+
+    private boolean isIndexed(Region region) {
+        return index.regions.get(region.id) == region;
+    }
 
-    private static Set<ResourceLocation> parseItems(JsonArray items) {
-        Set<ResourceLocation> result = new HashSet<>();
-        for (JsonElement item : items) {
-            String name = item.getAsString();
-            ResourceLocation resourceLocation = new ResourceLocation(name);
-            result.add(resourceLocation);
+    private static <T> void link(Map<UUID, Set<T>> index, UUID player, T value) {
+        Set<T> values = index.get(player);
+        if (values == null) {
+            index.put(player, values = new HashSet<>());
+        }
+        values.add(value);
+    }
+
+    private static <T> void unlink(Map<UUID, Set<T>> index, UUID player, T value) {
+        Set<T> values = index.get(player);
+        if (values != null && values.remove(value) && values.isEmpty()) {
+            index.remove(player);
         }
-        return result;
     }
 
+    /**
+     * Chunk candidates already fetched by one batch lookup. Affected positions cluster in a few chunks, so the last chunk
+     * is kept aside and the map is only allocated once a second chunk shows up.
+     */
+    private final class ChunkLookup {
+        private long lastKey;
+        private List<Region> last;
+        private Long2ObjectMap<List<Region>> chunks;
+
+        Region get(int x, int z) {
+            long key = ChunkPos.asLong(x >> 4, z >> 4);
+            List<Region> candidates;
+            if (last != null && key == lastKey) {
+                candidates = last;
+            } else {
+                candidates = chunks != null ? chunks.get(key) : null;
+                if (candidates == null) {
+                    candidates = index.chunkIndex.get(key);
+                    if (candidates == null) {
+                        candidates = Collections.emptyList();
+                    }
+                    if (last != null) {
+                        if (chunks == null) {
+                            chunks = new Long2ObjectOpenHashMap<>();
+                            chunks.put(lastKey, last);
+                        }
+                        chunks.put(key, candidates);
+                    }
+                }
+                lastKey = key;
+                last = candidates;
+            }
+            for (int i = 0, size = candidates.size(); i < size; i++) {
+                Region region = candidates.get(i);
+                if (region.contains(x, z)) {
+                    return region;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * In-memory indexes of a world: stubs of all regions, and the loaded regions by id, chunk, box and member.
+     * A {@link Loader} builds a fresh one off the server thread; once published it is only touched on the server thread.
+     */
+    static final class Index {
+        final Map<UUID, Region> regions = new HashMap<>();
+        final Map<UUID, RegionStub> stubs = new HashMap<>();
+        final Long2ObjectMap<Set<UUID>> shardIndex = new Long2ObjectOpenHashMap<>();
+        final Map<UUID, Set<UUID>> ownerIndex = new HashMap<>();
+        final Map<UUID, Set<Region>> memberIndex = new HashMap<>();
+        final Long2ObjectMap<List<Region>> chunkIndex = new Long2ObjectOpenHashMap<>();
+        /**
+         * Number of regions, loaded or not, touching each chunk. Chunks without any are absent.
+         */
+        final Long2IntOpenHashMap claimedChunks = new Long2IntOpenHashMap();
+        final RegionTree<Region> tree = new RegionTree<>();
+        /**
+         * Stubs changed since the last published snapshot, {@code null} for removed regions.
+         */
+        final Map<UUID, RegionStub> changes = new HashMap<>();
+
+        void addStub(RegionStub stub) {
+            stubs.put(stub.id, stub);
+            changes.put(stub.id, stub);
+            link(ownerIndex, stub.owner, stub.id);
+            for (int sx = stub.minX >> SHARD_SHIFT; sx <= stub.maxX >> SHARD_SHIFT; sx++) {
+                for (int sz = stub.minZ >> SHARD_SHIFT; sz <= stub.maxZ >> SHARD_SHIFT; sz++) {
+                    long key = RegionStub.shardKey(sx, sz);
+                    Set<UUID> ids = shardIndex.get(key);
+                    if (ids == null) {
+                        shardIndex.put(key, ids = new HashSet<>());
+                    }
+                    ids.add(stub.id);
+                }
+            }
+            for (int cx = stub.minX >> 4; cx <= stub.maxX >> 4; cx++) {
+                for (int cz = stub.minZ >> 4; cz <= stub.maxZ >> 4; cz++) {
+                    claimedChunks.addTo(ChunkPos.asLong(cx, cz), 1);
+                }
+            }
+        }
+
+        RegionStub removeStub(UUID id) {
+            RegionStub stub = stubs.remove(id);
+            if (stub != null) {
+                changes.put(id, null);
+                unlink(ownerIndex, stub.owner, id);
+                for (int sx = stub.minX >> SHARD_SHIFT; sx <= stub.maxX >> SHARD_SHIFT; sx++) {
+                    for (int sz = stub.minZ >> SHARD_SHIFT; sz <= stub.maxZ >> SHARD_SHIFT; sz++) {
+                        long key = RegionStub.shardKey(sx, sz);
+                        Set<UUID> ids = shardIndex.get(key);
+                        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                            shardIndex.remove(key);
+                        }
+                    }
+                }
+                for (int cx = stub.minX >> 4; cx <= stub.maxX >> 4; cx++) {
+                    for (int cz = stub.minZ >> 4; cz <= stub.maxZ >> 4; cz++) {
+                        long key = ChunkPos.asLong(cx, cz);
+                        if (claimedChunks.addTo(key, -1) <= 1) {
+                            claimedChunks.remove(key);
+                        }
+                    }
+                }
+            }
+            return stub;
+        }
+
+        void changeOwner(UUID id, UUID owner) {
+            RegionStub stub = stubs.get(id);
+            unlink(ownerIndex, stub.owner, id);
+            stubs.put(id, stub = stub.withOwner(owner));
+            changes.put(id, stub);
+            link(ownerIndex, owner, id);
+        }
+
+        void add(Region region) {
+            regions.put(region.id, region);
+            tree.insert(region, region.minX, region.minZ, region.maxX, region.maxZ);
+            for (UUID member : region.members.keySet()) {
+                link(memberIndex, member, region);
+            }
+            for (int cx = region.minX >> 4; cx <= region.maxX >> 4; cx++) {
+                for (int cz = region.minZ >> 4; cz <= region.maxZ >> 4; cz++) {
+                    long key = ChunkPos.asLong(cx, cz);
+                    List<Region> candidates = chunkIndex.get(key);
+                    if (candidates == null) {
+                        chunkIndex.put(key, candidates = new ArrayList<>(1));
+                    }
+                    candidates.add(region);
+                }
+            }
+        }
+
+        void remove(Region region) {
+            regions.remove(region.id, region);
+            tree.remove(region, region.minX, region.minZ, region.maxX, region.maxZ);
+            for (UUID member : region.members.keySet()) {
+                unlink(memberIndex, member, region);
+            }
+            for (int cx = region.minX >> 4; cx <= region.maxX >> 4; cx++) {
+                for (int cz = region.minZ >> 4; cz <= region.maxZ >> 4; cz++) {
+                    long key = ChunkPos.asLong(cx, cz);
+                    List<Region> candidates = chunkIndex.get(key);
+                    if (candidates != null && candidates.remove(region) && candidates.isEmpty()) {
+                        chunkIndex.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a world's regions into a fresh {@link Index} without touching live state, so that several worlds
+     * can load in parallel. Storage, manifest, legacy files and journal are all read in {@link #run()}.
+     */
+    final class Loader {
+        private final Index index = new Index();
+        private final LongSet dirtyShards = new LongOpenHashSet();
+        private RegionStorage storage;
+        private RegionFiles.Header header;
+        private boolean manifestDirty;
+        private Path legacy;
+
+        /**
+         * Reads the storage's manifest and replays the journal entries written after it. Regions are imported into
+         * an empty storage from a single {@code regions.json} or {@code regions.dat}, which is renamed to {@code .bak}
+         * on publish, or from the region files when a database is used.
+         */
+        void run() throws IOException {
+            this.storage = regionManager.createStorage(WorldRegionManager.this, dir);
+            this.header = storage.readManifest(index::addStub);
+            if (header == null) {
+                for (RegionFormat format : RegionFormat.values()) {
+                    Path file = dir.resolve(format.fileName);
+                    if (Files.exists(file)) {
+                        header = RegionFiles.read(format, file, WorldRegionManager.this, this::importRegion);
+                        legacy = file;
+                        break;
+                    }
+                }
+                if (header == null && !(storage instanceof FileRegionStorage)) {
+                    FileRegionStorage files = new FileRegionStorage(WorldRegionManager.this, dir.resolve("regions"), regionManager.getStorageFormat());
+                    if ((header = files.readManifest(stub -> {})) != null) {
+                        files.readAll(this::importRegion);
+                        LOGGER.info("Importing region files of world {} into the database", dimension.getName());
+                    }
+                }
+                manifestDirty = header != null;
+            }
+            LOGGER.info("Found {} regions for world {}", index.stubs.size(), dimension.getName());
+            journal.replay(header != null ? header.sequence : 0, new RegionJournal.Handler() {
+                @Override
+                public void update(UUID id, JsonReader reader) throws IOException {
+                    Region region = readRegion(id, reader);
+                    delete(id);
+                    importRegion(region);
+                }
+
+                @Override
+                public void delete(UUID id) {
+                    Region old = index.regions.get(id);
+                    if (old != null) {
+                        index.remove(old);
+                    }
+                    RegionStub stub = index.removeStub(id);
+                    if (stub != null) {
+                        dirtyShards.add(stub.getHomeShard());
+                        manifestDirty = true;
+                    }
+                }
+            });
+            if (journal.size() > 0) {
+                LOGGER.info("Replayed {} journal entries for world {}", journal.size(), dimension.getName());
+            }
+        }
+
+        private void importRegion(Region region) {
+            index.addStub(stubOf(region));
+            index.add(region);
+            dirtyShards.add(getHomeShard(region));
+        }
+
+        /**
+         * Swaps the loaded index in, saves whatever the load changed and loads the shards of already loaded chunks.
+         * Must be called on the server thread.
+         */
+        void publish() throws IOException {
+            unloadRegions();
+            WorldRegionManager.this.index = index;
+            index.changes.clear();
+            snapshot = RegionSnapshot.of(snapshot.getVersion() + 1, index.stubs.values(), regionAccessOverrides);
+            for (Region region : index.regions.values()) {
+                regionManager.regionsById.put(region.id, region);
+            }
+            WorldRegionManager.this.storage = storage;
+            WorldRegionManager.this.saver = new RegionSaver(storage, journal);
+            WorldRegionManager.this.dirtyShards.addAll(dirtyShards);
+            WorldRegionManager.this.manifestDirty = manifestDirty;
+            if (header != null) {
+                enabled = header.enabled;
+            }
+            save();
+            if (legacy != null) {
+                awaitSave();
+                if (storage.readManifest(stub -> {}) != null) {
+                    Files.move(legacy, legacy.resolveSibling(legacy.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+                    LOGGER.info("Migrated regions of world {} from {}", dimension.getName(), legacy.getFileName());
+                }
+            }
+            for (Long2IntMap.Entry entry : shardChunks.long2IntEntrySet()) {
+                if (entry.getIntValue() > 0) {
+                    loadShard(entry.getLongKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shared instance of a player id, so that the owners and members of many regions do not each hold a copy.
+     * The interner holds ids weakly, an id is dropped once no region or stub refers to it any more.
+     */
+    static UUID internPlayer(UUID id) {
+        return PLAYER_IDS.intern(id);
+    }
+
+    /**
+     * Kept small for servers with 100k+ regions: corners are stored as ints rather than {@link Location}s,
+     * owner and member ids are interned, and the member and item sets stay shared empty instances until first used.
+     */
     public class Region implements Bounding {
+        private static final int START_MAX_X = 1;
+        private static final int START_MAX_Z = 2;
+
         final UUID id;
         UUID owner;
-        final Map<UUID, Set<RegionAbility>> members;
-        public Set<ResourceLocation> rightClickItemUsage;
-        final Location start, end;
-        boolean explosions, pvp, restrictCommands, projectiles, protectingHostiles, preventingAnimalAttacks, preventingMobAttacks, mobSpawn, fallDamage, teleportSpawn;
-
-        public Region(Dimension dimension, UUID id, JsonObject root) {
-            this(id,
-                UUID.fromString(JsonUtils.getString(root, "owner")),
-                Location.deserialize(dimension.getVanilla().getId(), root.getAsJsonObject("start")),
-                Location.deserialize(dimension.getVanilla().getId(), root.getAsJsonObject("end")),
-                JsonUtils.getBoolean(root, "pvp", false),
-                JsonUtils.getBoolean(root, "restrictCommands", false),
-                JsonUtils.getBoolean(root, "explosions", false),
-                JsonUtils.getBoolean(root, "projectiles", false),
-                JsonUtils.getBoolean(root, "protectingHostiles", false),
-                JsonUtils.getBoolean(root, "preventingMobAttacks", false),
-                JsonUtils.getBoolean(root, "preventingAnimalAttacks", true),
-                JsonUtils.getBoolean(root, "mobSpawn", true),
-                JsonUtils.getBoolean(root, "fallDamage", true),
-                JsonUtils.getBoolean(root, "teleportSpawn", false),
-                root.has("rightClickItemUsage") ? parseItems(JsonUtils.getJsonArray(root, "rightClickItemUsage")) : new HashSet<>(),
-                root.has("members") ? parseMembers(JsonUtils.getJsonObject(root, "members")) : new HashMap<>()
-            );
+        Object2IntMap<UUID> members;
+        Set<ResourceLocation> rightClickItemUsage;
+        final int minX, minZ, maxX, maxZ;
+        final int startY, endY;
+        /**
+         * Which corner of the bounds the start location was, see {@link #getStart()}.
+         */
+        final byte corners;
+        long flags;
+        int revision;
+        int journaledRevision;
+        private RegionState state;
+        private MessageRegions.Entry payload;
+
+        public Region(UUID id, UUID owner, Location start, Location end, long flags, Set<ResourceLocation> rightClickItemUsage, Object2IntMap<UUID> members) {
+            this.id = id;
+            this.owner = internPlayer(owner);
+            this.minX = Math.min(start.getBlockX(), end.getBlockX());
+            this.minZ = Math.min(start.getBlockZ(), end.getBlockZ());
+            this.maxX = Math.max(start.getBlockX(), end.getBlockX());
+            this.maxZ = Math.max(start.getBlockZ(), end.getBlockZ());
+            this.startY = start.getBlockY();
+            this.endY = end.getBlockY();
+            this.corners = (byte) ((start.getBlockX() > end.getBlockX() ? START_MAX_X : 0) | (start.getBlockZ() > end.getBlockZ() ? START_MAX_Z : 0));
+            this.flags = flags;
+            this.rightClickItemUsage = rightClickItemUsage.isEmpty() ? Collections.emptySet() : rightClickItemUsage;
+            if (members.isEmpty()) {
+                this.members = Object2IntMaps.emptyMap();
+            } else {
+                if (members instanceof Object2IntOpenHashMap) {
+                    ((Object2IntOpenHashMap<UUID>) members).trim();
+                }
+                this.members = members;
+            }
+            this.revision = this.journaledRevision = revisionClock.incrementAndGet();
         }
 
+        /**
+         * @deprecated flags are a bitset now, use {@link #Region(UUID, UUID, Location, Location, long, Set, Object2IntMap)}
+         */
+        @Deprecated
         public Region(UUID id, UUID owner, Location start, Location end, boolean pvp, boolean restrictCommands, boolean explosions, boolean projectiles, boolean protectingHostiles, boolean preventingAnimalAttacks, boolean preventingMobAttacks, boolean mobSpawn, boolean fallDamage, boolean teleportSpawn, Set<ResourceLocation> rightClickItemUsage, Map<UUID, Set<RegionAbility>> members) {
-            this.id = id;
-            this.owner = owner;
-            this.start = start;
-            this.end = end;
-            this.pvp = pvp;
-            this.restrictCommands = restrictCommands;
-            this.projectiles = projectiles;
-            this.protectingHostiles = protectingHostiles;
-            this.preventingMobAttacks = preventingMobAttacks;
-            this.preventingAnimalAttacks = preventingAnimalAttacks;
-            this.explosions = explosions;
-            this.mobSpawn = mobSpawn;
-            this.fallDamage = fallDamage;
-            this.teleportSpawn = teleportSpawn;
-            this.rightClickItemUsage = rightClickItemUsage;
-            this.members = members;
+            this(id, owner, start, end, legacyFlags(pvp, restrictCommands, explosions, projectiles, protectingHostiles, preventingAnimalAttacks, preventingMobAttacks, mobSpawn, fallDamage, teleportSpawn), rightClickItemUsage, legacyMembers(members));
+        }
+
+        Region(RegionState state) {
+            this(state.id, state.owner, state.start, state.end, state.flags,
+                state.rightClickItemUsage.isEmpty() ? Collections.emptySet() : new HashSet<>(state.rightClickItemUsage),
+                state.members.isEmpty() ? Object2IntMaps.emptyMap() : new Object2IntOpenHashMap<>(state.members));
+            this.revision = this.journaledRevision = state.revision;
         }
 
         public WorldRegionManager getManager() {
@@ -183,8 +1041,35 @@ public class WorldRegionManager extends ConfigurableManager {
             return owner;
         }
 
+        /**
+         * Advanced on every change of owner, members, flags or item restrictions. Unique within the world.
+         */
+        public int getRevision() {
+            return revision;
+        }
+
+        /**
+         * Returns an immutable copy of this region, taken once per revision.
+         */
+        public RegionState getState() {
+            if (state == null || state.revision != revision) {
+                state = new RegionState(this);
+            }
+            return state;
+        }
+
+        /**
+         * Returns the network form of this region, resolved and encoded once per revision.
+         */
+        public MessageRegions.Entry getPayload() {
+            if (payload == null || payload.getRevision() != revision) {
+                payload = new MessageRegions.Entry(server, this);
+            }
+            return payload;
+        }
+
         public Set<UUID> getMembers() {
-            return members.keySet();
+            return Collections.unmodifiableSet(members.keySet());
         }
 
         public Set<ResourceLocation> getRightClickItemUsage() {
@@ -192,15 +1077,25 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean addRightClickItemUsage(ResourceLocation r) {
-            return this.rightClickItemUsage.add(r);
+            if (this.rightClickItemUsage.isEmpty()) {
+                this.rightClickItemUsage = new HashSet<>(4);
+            }
+            if (this.rightClickItemUsage.add(r)) {
+                this.revision = revisionClock.incrementAndGet();
+                return true;
+            }
+            return false;
         }
 
+        /**
+         * Corner the region was claimed from. Built on each call, regions do not keep {@link Location}s.
+         */
         public Location getStart() {
-            return start;
+            return new Location(getDimensionId(), (corners & START_MAX_X) != 0 ? maxX : minX, startY, (corners & START_MAX_Z) != 0 ? maxZ : minZ);
         }
 
         public Location getEnd() {
-            return end;
+            return new Location(getDimensionId(), (corners & START_MAX_X) != 0 ? minX : maxX, endY, (corners & START_MAX_Z) != 0 ? minZ : maxZ);
         }
 
         public double getWidth() {
@@ -223,9 +1118,25 @@ public class WorldRegionManager extends ConfigurableManager {
             return getArea() * getHeight();
         }
 
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinZ() {
+            return minZ;
+        }
+
+        public int getMaxX() {
+            return maxX;
+        }
+
+        public int getMaxZ() {
+            return maxZ;
+        }
+
         @Override
         public double getStartX() {
-            return Math.min(start.getBlockX(), end.getBlockX());
+            return minX;
         }
 
         @Override
@@ -235,12 +1146,12 @@ public class WorldRegionManager extends ConfigurableManager {
 
         @Override
         public double getStartZ() {
-            return Math.min(start.getBlockZ(), end.getBlockZ());
+            return minZ;
         }
 
         @Override
         public double getEndX() {
-            return Math.max(start.getBlockX(), end.getBlockX());
+            return maxX;
         }
 
         @Override
@@ -250,7 +1161,11 @@ public class WorldRegionManager extends ConfigurableManager {
 
         @Override
         public double getEndZ() {
-            return Math.max(start.getBlockZ(), end.getBlockZ());
+            return maxZ;
+        }
+
+        public boolean contains(int x, int z) {
+            return x >= minX && x <= maxX && z >= minZ && z <= maxZ;
         }
 
         public double distance2DSq(Location location) {
@@ -286,19 +1201,63 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public void setOwner(UUID target) {
-            owner = target;
+            if (!owner.equals(target)) {
+                target = internPlayer(target);
+                if (isIndexed()) {
+                    index.changeOwner(id, target);
+                    manifestDirty = true;
+                    publishSnapshot();
+                }
+                owner = target;
+                this.revision = revisionClock.incrementAndGet();
+            }
+        }
+
+        private boolean isIndexed() {
+            return WorldRegionManager.this.isIndexed(this);
+        }
+
+        /**
+         * Bitset of {@link RegionFlag}s, indexed by {@link RegionFlag#getId()}.
+         */
+        public long getFlags() {
+            return flags;
+        }
+
+        public boolean is(RegionFlag flag) {
+            return (flags & flag.getMask()) != 0;
+        }
+
+        public void set(RegionFlag flag, boolean value) {
+            long flags = flag.set(this.flags, value);
+            if (flags != this.flags) {
+                this.flags = flags;
+                this.revision = revisionClock.incrementAndGet();
+            }
         }
 
         public boolean canSpawnMobs() {
-            return mobSpawn;
+            return is(RegionFlag.MOB_SPAWN);
+        }
+
+        public void setSpawnMobs(boolean mobSpawn) {
+            set(RegionFlag.MOB_SPAWN, mobSpawn);
         }
 
         public boolean isFallDamage() {
-            return fallDamage;
+            return is(RegionFlag.FALL_DAMAGE);
+        }
+
+        public void setFallDamage(boolean fallDamage) {
+            set(RegionFlag.FALL_DAMAGE, fallDamage);
         }
 
         public boolean isTeleportSpawn() {
-            return teleportSpawn;
+            return is(RegionFlag.TELEPORT_SPAWN);
+        }
+
+        public void setTeleportSpawn(boolean teleportSpawn) {
+            set(RegionFlag.TELEPORT_SPAWN, teleportSpawn);
         }
 
         public boolean canEditBlocks(OfflinePlayer target) {
@@ -306,7 +1265,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canEditBlocks(UUID target) {
-            return isOwner(target) || getMemberAbilities(target).contains(RegionAbility.EDIT_BLOCKS);
+            return isOwner(target) || hasAbility(target, RegionAbility.EDIT_BLOCKS);
         }
 
         public boolean canInteractBlocks(OfflinePlayer target) {
@@ -314,7 +1273,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canInteractBlocks(UUID target) {
-            return isOwner(target) || getMemberAbilities(target).contains(RegionAbility.INTERACT_BLOCKS);
+            return isOwner(target) || hasAbility(target, RegionAbility.INTERACT_BLOCKS);
         }
 
         public boolean canInteractEntities(OfflinePlayer target) {
@@ -322,7 +1281,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canInteractEntities(UUID target) {
-            return isOwner(target) || getMemberAbilities(target).contains(RegionAbility.INTERACT_ENTITIES);
+            return isOwner(target) || hasAbility(target, RegionAbility.INTERACT_ENTITIES);
         }
 
         public boolean canAttackHostiles(OfflinePlayer target) {
@@ -330,7 +1289,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canAttackHostiles(UUID target) {
-            return isOwner(target) || getMemberAbilities(target).contains(RegionAbility.ATTACK_HOSTILES);
+            return isOwner(target) || hasAbility(target, RegionAbility.ATTACK_HOSTILES);
         }
 
         public boolean canAttackNeutral(OfflinePlayer target) {
@@ -338,7 +1297,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canAttackNeutral(UUID target) {
-            return isOwner(target) || !preventingAnimalAttacks || getMemberAbilities(target).contains(RegionAbility.ATTACK_NEUTRAL);
+            return isOwner(target) || !isPreventingAnimalAttacks() || hasAbility(target, RegionAbility.ATTACK_NEUTRAL);
         }
 
         public boolean canLaunchProjectiles(OfflinePlayer target) {
@@ -346,7 +1305,7 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canLaunchProjectiles(UUID target) {
-            return isProjectiles() || isOwner(target) || getMemberAbilities(target).contains(RegionAbility.LAUNCH_PROJECTILES);
+            return isProjectiles() || isOwner(target) || hasAbility(target, RegionAbility.LAUNCH_PROJECTILES);
         }
 
         public boolean canHookEntity(OfflinePlayer target) {
@@ -354,11 +1313,25 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public boolean canHookEntity(UUID target) {
-            return isOwner(target) || getMemberAbilities(target).contains(RegionAbility.HOOK_ENTITIES);
+            return isOwner(target) || hasAbility(target, RegionAbility.HOOK_ENTITIES);
+        }
+
+        /**
+         * Single probe of the member table, {@code false} for non-members.
+         */
+        public boolean hasAbility(UUID target, RegionAbility ability) {
+            return (this.members.getInt(target) & ability.mask) != 0;
+        }
+
+        /**
+         * Abilities of the member as a {@link RegionAbility} bitmask, 0 for non-members.
+         */
+        public int getMemberMask(UUID target) {
+            return this.members.getInt(target);
         }
 
         public Set<RegionAbility> getMemberAbilities(UUID target) {
-            return this.members.getOrDefault(target, Collections.emptySet());
+            return RegionAbility.fromMask(getMemberMask(target));
         }
 
         public void setMemberAbilities(OfflinePlayer target, Set<RegionAbility> abilities) {
@@ -366,151 +1339,124 @@ public class WorldRegionManager extends ConfigurableManager {
         }
 
         public void setMemberAbilities(UUID target, Set<RegionAbility> abilities) {
-            this.members.put(target, abilities);
+            setMemberMask(target, RegionAbility.toMask(abilities));
         }
 
-        public void setMemberAbility(OfflinePlayer target, RegionAbility ability, boolean allowed) {
-            setMemberAbility(target.getId(), ability, allowed);
-        }
-
-        public void setMemberAbility(UUID target, RegionAbility ability, boolean allowed) {
-            if (!this.members.containsKey(target) && allowed) {
-                this.members.put(target, new HashSet<>());
+        public void setMemberMask(UUID target, int mask) {
+            boolean added = !this.members.containsKey(target);
+            if (this.members.isEmpty()) {
+                this.members = new Object2IntOpenHashMap<>(4);
             }
-            Set<RegionAbility> abilities = getMemberAbilities(target);
-            if (allowed) {
-                abilities.add(ability);
-            } else if (!abilities.isEmpty()) {
-                abilities.remove(ability);
+            this.members.put(internPlayer(target), mask);
+            if (added && isIndexed()) {
+                link(index.memberIndex, target, this);
             }
+            this.revision = revisionClock.incrementAndGet();
         }
 
-        public void setSpawnMobs(boolean mobSpawn) {
-            this.mobSpawn = mobSpawn;
+        public boolean removeMember(OfflinePlayer target) {
+            return removeMember(target.getId());
         }
 
-        public void setFallDamage(boolean fallDamage) {
-            this.fallDamage = fallDamage;
+        public boolean removeMember(UUID target) {
+            if (this.members.containsKey(target)) {
+                this.members.removeInt(target);
+                if (this.members.isEmpty()) {
+                    this.members = Object2IntMaps.emptyMap();
+                }
+                if (isIndexed()) {
+                    unlink(index.memberIndex, target, this);
+                }
+                this.revision = revisionClock.incrementAndGet();
+                return true;
+            }
+            return false;
         }
-        public void setTeleportSpawn(boolean teleportSpawn) {
-            this.teleportSpawn = teleportSpawn;
+
+        public void setMemberAbility(OfflinePlayer target, RegionAbility ability, boolean allowed) {
+            setMemberAbility(target.getId(), ability, allowed);
+        }
+
+        public void setMemberAbility(UUID target, RegionAbility ability, boolean allowed) {
+            if (!this.members.containsKey(target)) {
+                if (allowed) {
+                    setMemberMask(target, ability.mask);
+                }
+                return;
+            }
+            int mask = this.members.getInt(target);
+            int updated = allowed ? mask | ability.mask : mask & ~ability.mask;
+            if (updated != mask) {
+                this.members.put(target, updated);
+                this.revision = revisionClock.incrementAndGet();
+            }
         }
 
         public boolean isPvP() {
-            return pvp;
+            return is(RegionFlag.PVP);
         }
 
         public void setPvP(boolean pvp) {
-            this.pvp = pvp;
+            set(RegionFlag.PVP, pvp);
         }
 
         public boolean isProjectiles() {
-            return projectiles;
+            return is(RegionFlag.PROJECTILES);
         }
 
         public void setProjectiles(boolean projectiles) {
-            this.projectiles = projectiles;
+            set(RegionFlag.PROJECTILES, projectiles);
         }
 
         public boolean isProtectingHostiles() {
-            return protectingHostiles;
+            return is(RegionFlag.PROTECTING_HOSTILES);
         }
 
         public void setProtectingHostiles(boolean protectingHostiles) {
-            this.protectingHostiles = protectingHostiles;
+            set(RegionFlag.PROTECTING_HOSTILES, protectingHostiles);
         }
 
         public boolean isPreventingMobAttacks() {
-            return preventingMobAttacks;
+            return is(RegionFlag.PREVENTING_MOB_ATTACKS);
         }
 
         public void setPreventingMobAttacks(boolean preventingMobAttacks) {
-            this.preventingMobAttacks = preventingMobAttacks;
+            set(RegionFlag.PREVENTING_MOB_ATTACKS, preventingMobAttacks);
         }
 
         public boolean isPreventingAnimalAttacks() {
-            return preventingAnimalAttacks;
+            return is(RegionFlag.PREVENTING_ANIMAL_ATTACKS);
         }
 
         public void setPreventingAnimalAttacks(boolean preventingAnimalAttacks) {
-            this.preventingAnimalAttacks = preventingAnimalAttacks;
+            set(RegionFlag.PREVENTING_ANIMAL_ATTACKS, preventingAnimalAttacks);
         }
 
         /**A better method name, maybe?*/
         public boolean isExplosions() {
-            return explosions;
+            return is(RegionFlag.EXPLOSIONS);
         }
 
-        public boolean isRestrictCommands() {
-            return restrictCommands;
+        public void setExplosions(boolean explosions) {
+            set(RegionFlag.EXPLOSIONS, explosions);
         }
 
-        public void setRestrictCommands(boolean restrictCommands) {
-            this.restrictCommands = restrictCommands;
+        public boolean isRestrictCommands() {
+            return is(RegionFlag.RESTRICT_COMMANDS);
         }
 
-        public void setExplosions(boolean explosions) {
-            this.explosions = explosions;
+        public void setRestrictCommands(boolean restrictCommands) {
+            set(RegionFlag.RESTRICT_COMMANDS, restrictCommands);
         }
 
         public JsonObject toJson() {
-            JsonObject result = new JsonObject();
-            result.addProperty("owner", owner.toString());
-            result.add("start", start.serialize());
-            result.add("end", end.serialize());
-            if (pvp) {
-                result.addProperty("pvp", true);
-            }
-            if (restrictCommands) {
-                result.addProperty("restrictCommands", true);
-            }
-            if (explosions) {
-                result.addProperty("explosions", true);
-            }
-            if (projectiles) {
-                result.addProperty("projectiles", true);
-            }
-            if (preventingMobAttacks) {
-                result.addProperty("preventingMobAttacks", true);
-            }
-            if (!preventingAnimalAttacks) {
-                result.addProperty("preventingAnimalAttacks", false);
-            }
-            if (protectingHostiles) {
-                result.addProperty("protectingHostiles", true);
-            }
-            if (!mobSpawn) {
-                result.addProperty("mobSpawn", false);
+            StringWriter result = new StringWriter();
+            try {
+                getState().write(new JsonWriter(result));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-            if (!fallDamage) {
-                result.addProperty("fallDamage", false);
-            }
-            if (teleportSpawn) {
-                result.addProperty("teleportSpawn", true);
-            }
-            if (!this.members.isEmpty()) {
-                JsonObject members = new JsonObject();
-                for (Map.Entry<UUID, Set<RegionAbility>> entry : this.members.entrySet()) {
-                    JsonArray abilities = new JsonArray();
-                    for (RegionAbility ability : entry.getValue()) {
-                        abilities.add(ability.name().toLowerCase());
-                    }
-                    if (abilities.size() > 0) {
-                        members.add(entry.getKey().toString(), abilities);
-                    }
-                }
-                if (members.size() > 0) {
-                    result.add("members", members);
-                }
-            }
-            if (!this.rightClickItemUsage.isEmpty()) {
-                JsonArray items = new JsonArray();
-                for (ResourceLocation resourceLocation : this.rightClickItemUsage) {
-                    items.add(String.valueOf(resourceLocation));
-                }
-                result.add("rightClickItemUsage", items);
-            }
-            return result;
+            return JSON_PARSER.parse(result.toString()).getAsJsonObject();
         }
 
         @Override
@@ -534,6 +1480,26 @@ public class WorldRegionManager extends ConfigurableManager {
         ATTACK_HOSTILES,
         ATTACK_NEUTRAL,
         LAUNCH_PROJECTILES,
-        HOOK_ENTITIES
+        HOOK_ENTITIES;
+
+        public final int mask = 1 << ordinal();
+
+        public static int toMask(Collection<RegionAbility> abilities) {
+            int mask = 0;
+            for (RegionAbility ability : abilities) {
+                mask |= ability.mask;
+            }
+            return mask;
+        }
+
+        public static Set<RegionAbility> fromMask(int mask) {
+            Set<RegionAbility> result = EnumSet.noneOf(RegionAbility.class);
+            for (RegionAbility ability : values()) {
+                if ((mask & ability.mask) != 0) {
+                    result.add(ability);
+                }
+            }
+            return result;
+        }
     }
 }
@@ -43,7 +43,7 @@ import ru.craftlogic.regions.common.item.ItemWand;
 import ru.craftlogic.regions.network.message.MessageConfiguration;
 import ru.craftlogic.regions.network.message.MessageDeleteRegion;
 import ru.craftlogic.regions.network.message.MessageOverride;
-import ru.craftlogic.regions.network.message.MessageRegion;
+import ru.craftlogic.regions.network.message.MessageRegions;
 import ru.craftlogic.util.ReflectiveUsage;
 
 import java.util.*;
@@ -80,13 +80,14 @@ public class ProxyClient extends ProxyCommon {
     }
 
     @Override
-    protected AdvancedMessage handleRegion(MessageRegion message, MessageContext context) {
+    protected AdvancedMessage handleRegions(MessageRegions message, MessageContext context) {
         syncTask(context, () -> {
             WorldClient world = client.world;
             if (world != null && message.getDimension() == world.provider.getDimension()) {
-                UUID id = message.getId();
-                VisualRegion region = new VisualRegion(message, getPlayer(context));
-                regions.put(id, region);
+                Entity viewer = getPlayer(context);
+                for (MessageRegions.Entry entry : message.getRegions()) {
+                    regions.put(entry.getId(), new VisualRegion(entry, viewer));
+                }
             }
         });
         return null;
@@ -118,7 +119,7 @@ public class ProxyClient extends ProxyCommon {
 
     private VisualRegion getRegion(Location location) {
         for (VisualRegion region : regions.values()) {
-            if (region.isOwning(location)) {
+            if (region.contains(location.getBlockX(), location.getBlockZ())) {
                 return region;
             }
         }
@@ -245,14 +246,19 @@ public class ProxyClient extends ProxyCommon {
     private static class VisualRegion implements Bounding {
         private final UUID id;
         private final BlockPos start, end;
+        private final int minX, minZ, maxX, maxZ;
         private final GameProfile owner;
         private final Set<GameProfile> members;
         private boolean pvp, editBlocks, interactBlocks, interactEntities, launchProjectiles;
 
-        public VisualRegion(MessageRegion message, Entity viewer) {
+        public VisualRegion(MessageRegions.Entry message, Entity viewer) {
             this.id = message.getId();
             this.start = message.getStart();
             this.end = message.getEnd();
+            this.minX = Math.min(start.getX(), end.getX());
+            this.minZ = Math.min(start.getZ(), end.getZ());
+            this.maxX = Math.max(start.getX(), end.getX());
+            this.maxZ = Math.max(start.getZ(), end.getZ());
             this.owner = message.getOwner();
             this.pvp = message.isPvP();
             this.members = new HashSet<>(message.getMembers());
@@ -277,9 +283,13 @@ public class ProxyClient extends ProxyCommon {
             }
         }
 
+        public boolean contains(int x, int z) {
+            return x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+        }
+
         @Override
         public double getStartX() {
-            return Math.min(start.getX(), end.getX());
+            return minX;
         }
 
         @Override
@@ -289,12 +299,12 @@ public class ProxyClient extends ProxyCommon {
 
         @Override
         public double getStartZ() {
-            return Math.min(start.getZ(), end.getZ());
+            return minZ;
         }
 
         @Override
         public double getEndX() {
-            return Math.max(start.getX(), end.getX());
+            return maxX;
         }
 
         @Override
@@ -304,7 +314,7 @@ public class ProxyClient extends ProxyCommon {
 
         @Override
         public double getEndZ() {
-            return Math.max(start.getZ(), end.getZ());
+            return maxZ;
         }
 
         public void renderTextOverlay(Minecraft client, RenderGameOverlayEvent.Text event) {
@@ -12,7 +12,7 @@ import ru.craftlogic.regions.common.item.ItemWand;
 import ru.craftlogic.regions.network.message.MessageConfiguration;
 import ru.craftlogic.regions.network.message.MessageDeleteRegion;
 import ru.craftlogic.regions.network.message.MessageOverride;
-import ru.craftlogic.regions.network.message.MessageRegion;
+import ru.craftlogic.regions.network.message.MessageRegions;
 import ru.craftlogic.util.ReflectiveUsage;
 
 import static ru.craftlogic.regions.CraftRegions.NETWORK;
@@ -24,7 +24,7 @@ public class ProxyCommon extends AdvancedMessageHandler {
     }
 
     public void init() {
-        NETWORK.registerMessage(this::handleRegion, MessageRegion.class, Side.CLIENT);
+        NETWORK.registerMessage(this::handleRegions, MessageRegions.class, Side.CLIENT);
         NETWORK.registerMessage(this::handleDeleteRegion, MessageDeleteRegion.class, Side.CLIENT);
         NETWORK.registerMessage(this::handleOverride, MessageOverride.class, Side.CLIENT);
         NETWORK.registerMessage(this::handleConfiguration, MessageConfiguration.class, Side.CLIENT);
@@ -34,7 +34,7 @@ public class ProxyCommon extends AdvancedMessageHandler {
 
     }
 
-    protected AdvancedMessage handleRegion(MessageRegion message, MessageContext context) {
+    protected AdvancedMessage handleRegions(MessageRegions message, MessageContext context) {
         return null;
     }
 
@@ -11,17 +11,17 @@ import ru.craftlogic.api.server.PlayerManager;
 import ru.craftlogic.api.server.Server;
 import ru.craftlogic.api.text.Text;
 import ru.craftlogic.api.world.*;
+import ru.craftlogic.regions.RegionFlag;
 import ru.craftlogic.regions.RegionManager;
 import ru.craftlogic.regions.WorldRegionManager;
 import ru.craftlogic.regions.WorldRegionManager.Region;
 
-import java.io.IOException;
 import java.util.*;
 
 public class CommandRegion extends CommandBase {
     public CommandRegion() {
         super("region", 1,
-            "pvp|hostiles|animal_attacks|mob_attacks|explosions|projectiles|mob_spawn|fall_damage|teleport_spawn|commands|item_use",
+            "item_use",
             "expel|transfer <target:OfflinePlayer>",
             "list",
             "list <target:OfflinePlayer>",
@@ -32,6 +32,7 @@ public class CommandRegion extends CommandBase {
             "delete|create|claim|info|override",
             "create|claim <name>",
             "info <region:Region>",
+            "<flag:RegionFlag>",
             ""
         );
         Collections.addAll(aliases, "rg", "reg");
@@ -45,7 +46,14 @@ public class CommandRegion extends CommandBase {
     protected void execute(CommandContext ctx) throws Throwable {
         Server server = ctx.server();
         RegionManager regionManager = server.getManager(RegionManager.class);
-        if (ctx.hasAction(0)) {
+        if (ctx.has("flag")) {
+            String name = ctx.get("flag").asString();
+            RegionFlag flag = RegionFlag.byCommand(name);
+            if (flag == null) {
+                throw new CommandException("commands.generic.parameter.invalid", name);
+            }
+            booleanFlag(ctx, regionManager, flag);
+        } else if (ctx.hasAction(0)) {
             switch (ctx.action(0)) {
                 case "teleport": {
                     Player sender = ctx.senderAsPlayer();
@@ -143,7 +151,7 @@ public class CommandRegion extends CommandBase {
                         if (region.isOwner(target) && !region.isMember(target)) {
                             throw new CommandException("commands.region.expel.owner");
                         } else {
-                            expel(region, sender, target);
+                            expel(regionManager, region, sender, target);
                         }
                     } else {
                         throw new CommandException("commands.region.not_owning");
@@ -163,13 +171,13 @@ public class CommandRegion extends CommandBase {
                     if (!region.isOwner(sender) && !sender.hasPermission("region.admin.transfer")) {
                         throw new CommandException("commands.region.not_owning");
                     }
-                    List<Region> alreadyOwnedRegions = regionManager.getPlayerRegions(target, sender.getWorld());
+                    int alreadyOwnedRegions = regionManager.getPlayerRegionCount(target.getId(), sender.getWorld());
                     int maxCount = target.getPermissionMetadata("region.max-count", 5, Integer::parseInt);
                     int maxArea = target.getPermissionMetadata("region.max-area", 100 * 100, Integer::parseInt);
-                    if (alreadyOwnedRegions.size() >= maxCount) {
+                    if (alreadyOwnedRegions >= maxCount) {
                         sender.sendMessage(
                             Text.translation("commands.region.transfer.max_count").red()
-                                .arg(alreadyOwnedRegions.size(), Text::darkRed)
+                                .arg(alreadyOwnedRegions, Text::darkRed)
                                 .arg(maxCount, Text::darkRed)
                         );
                     } else if (region.getArea() >= maxArea) {
@@ -186,6 +194,7 @@ public class CommandRegion extends CommandBase {
                             confirmed -> {
                                 if (confirmed) {
                                     region.setOwner(target);
+                                    regionManager.notifyRegionChange(region);
                                     sender.sendMessage(
                                         Text.translation("commands.region.transfer.successful").yellow()
                                             .arg(target.getName(), Text::gold)
@@ -199,12 +208,6 @@ public class CommandRegion extends CommandBase {
                                                 )
                                         );
                                     }
-                                    regionManager.setDirty(true);
-                                    try {
-                                        regionManager.save();
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
                                 }
                             }
                         );
@@ -250,7 +253,7 @@ public class CommandRegion extends CommandBase {
                                 Player player = ctx.senderAsPlayer();
                                 Location l = player.getLocation();
                                 final int distance;
-                                if (region.isOwning(l)) {
+                                if (region.contains(l.getBlockX(), l.getBlockZ())) {
                                     distance = 0;
                                 } else {
                                     distance = (int)region.distance2D(l);
@@ -278,7 +281,9 @@ public class CommandRegion extends CommandBase {
                         if (region == null) {
                             break;
                         }
-                        region.addRightClickItemUsage(name);
+                        if (region.addRightClickItemUsage(name)) {
+                            regionManager.notifyRegionChange(region);
+                        }
                     }
                     break;
                 }
@@ -287,46 +292,6 @@ public class CommandRegion extends CommandBase {
                     deleteRegion(sender, regionManager);
                     break;
                 }
-                case "explosions": {
-                    booleanFlag(ctx, regionManager, "explosions", Region::isExplosions, Region::setExplosions, true);
-                    break;
-                }
-                case "pvp": {
-                    booleanFlag(ctx, regionManager, "pvp", Region::isPvP, Region::setPvP, true);
-                    break;
-                }
-                case "commands": {
-                    booleanFlag(ctx, regionManager, "commands", Region::isRestrictCommands, Region::setRestrictCommands, true);
-                    break;
-                }
-                case "hostiles": {
-                    booleanFlag(ctx, regionManager, "hostiles", Region::isProtectingHostiles, Region::setProtectingHostiles, true);
-                    break;
-                }
-                case "mob_attacks": {
-                    booleanFlag(ctx, regionManager, "mob_attacks", Region::isPreventingMobAttacks, Region::setPreventingMobAttacks, false);
-                    break;
-                }
-                case "animal_attacks": {
-                    booleanFlag(ctx, regionManager, "animal_attacks", Region::isPreventingAnimalAttacks, Region::setPreventingAnimalAttacks, false);
-                    break;
-                }
-                case "projectiles": {
-                    booleanFlag(ctx, regionManager, "projectiles", Region::isProjectiles, Region::setProjectiles, true);
-                    break;
-                }
-                case "mob_spawn": {
-                    booleanFlag(ctx, regionManager, "mob_spawn", Region::canSpawnMobs, Region::setSpawnMobs, true);
-                    break;
-                }
-                case "fall_damage": {
-                    booleanFlag(ctx, regionManager, "fall_damage", Region::isFallDamage, Region::setFallDamage, true);
-                    break;
-                }
-                case "teleport_spawn": {
-                    booleanFlag(ctx, regionManager, "teleport_spawn", Region::isTeleportSpawn, Region::setTeleportSpawn, true);
-                    break;
-                }
                 case "create":
                 case "claim": {
                     throw new CommandException("commands.region.claim_wand");
@@ -341,25 +306,18 @@ public class CommandRegion extends CommandBase {
         }
     }
 
-    interface Getter {
-        boolean get(Region region);
-    }
-
-    interface Setter {
-        void set(Region region, boolean value);
-    }
-
-    private static void booleanFlag(CommandContext ctx, RegionManager regionManager, String name, Getter getter, Setter setter, boolean negative) throws CommandException {
+    private static void booleanFlag(CommandContext ctx, RegionManager regionManager, RegionFlag flag) throws CommandException {
+        String name = flag.getCommand();
         Player sender = ctx.senderAsPlayer();
         Region region = regionManager.getRegion(sender.getLocation());
         if (region != null) {
             if (region.isOwner(sender) && ctx.checkPermission(true, "commands.region." + name, 1)
                 || sender.hasPermission("commands.region.admin." + name)) {
 
-                boolean value = !getter.get(region);
-                setter.set(region, value);
-                region.getManager().setDirty(true);
-                sender.sendMessage(Text.translation("commands.region."  + name + "." + (value ? "on" : "off")).color(value ^ negative ? TextFormatting.GREEN : TextFormatting.RED));
+                boolean value = !region.is(flag);
+                region.set(flag, value);
+                regionManager.notifyRegionChange(region);
+                sender.sendMessage(Text.translation("commands.region."  + name + "." + (value ? "on" : "off")).color(value ^ flag.isNegative() ? TextFormatting.GREEN : TextFormatting.RED));
             } else {
                 throw new CommandException("commands.region.not_owning");
             }
@@ -395,7 +353,7 @@ public class CommandRegion extends CommandBase {
         }
     }
 
-    private static void expel(Region region, Player sender, OfflinePlayer target) {
+    private static void expel(RegionManager regionManager, Region region, Player sender, OfflinePlayer target) {
         sender.sendQuestion(
             "region.expel",
             Text.translation("commands.region.expel.question")
@@ -403,7 +361,8 @@ public class CommandRegion extends CommandBase {
             60,
             confirmed -> {
                 if (confirmed) {
-                    if (region.getMembers().remove(target.getId())) {
+                    if (region.removeMember(target)) {
+                        regionManager.notifyRegionChange(region);
                         sender.sendMessage(
                             Text.translation("commands.region.expel.success").yellow()
                                 .arg(target.getName(), Text::gold)
@@ -434,11 +393,6 @@ public class CommandRegion extends CommandBase {
                                 sender.sendMessage(
                                     Text.translation("commands.region.delete.success").yellow()
                                 );
-                                try {
-                                    regionManager.save(true);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
                             } else {
                                 sender.sendMessage(
                                     Text.translation("commands.region.delete.failure").red()
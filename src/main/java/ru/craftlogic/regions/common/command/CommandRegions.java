@@ -9,8 +9,10 @@ import ru.craftlogic.api.command.CommandContext;
 import ru.craftlogic.api.text.Text;
 import ru.craftlogic.api.world.Player;
 import ru.craftlogic.regions.RegionManager;
+import ru.craftlogic.regions.RegionMemory;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
@@ -25,7 +27,9 @@ public class CommandRegions extends CommandBase {
                 "custom door",
                 "custom door <id>",
                 "custom chest",
-                "custom chest <id>"
+                "custom chest <id>",
+                "export",
+                "memory"
         );
         Collections.addAll(aliases, "rgs", "regs");
     }
@@ -33,6 +37,23 @@ public class CommandRegions extends CommandBase {
     @Override
     protected void execute(CommandContext ctx) throws Throwable {
         RegionManager regionManager = ctx.server().getManager(RegionManager.class);
+        if (ctx.action(0).equals("export")) {
+            for (Path file : regionManager.exportRegions()) {
+                ctx.sendMessage(Text.translation("commands.regions.export").darkGreen().arg(file.toString()));
+            }
+            return;
+        }
+        if (ctx.action(0).equals("memory")) {
+            for (RegionMemory usage : regionManager.getMemoryUsage()) {
+                ctx.sendMessage(Text.translation("commands.regions.memory").yellow()
+                    .arg(usage.world, Text::gold)
+                    .arg(usage.regions, Text::gold)
+                    .arg(String.valueOf(usage.getBytesPerRegion()), Text::gold)
+                    .arg(usage.stubs, Text::gold)
+                    .arg(String.valueOf((usage.regionBytes + usage.stubBytes) / 1024), Text::gold));
+            }
+            return;
+        }
         switch (ctx.action(1)) {
             case "block":
             case "door":
@@ -0,0 +1,198 @@
+package ru.craftlogic.regions.network.message;
+
+import com.mojang.authlib.GameProfile;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.BlockPos;
+import ru.craftlogic.api.network.AdvancedBuffer;
+import ru.craftlogic.api.network.AdvancedMessage;
+import ru.craftlogic.api.network.AdvancedNetwork;
+import ru.craftlogic.api.server.PlayerManager;
+import ru.craftlogic.api.server.Server;
+import ru.craftlogic.api.world.OfflinePlayer;
+import ru.craftlogic.regions.CraftRegions;
+import ru.craftlogic.regions.RegionFlag;
+import ru.craftlogic.regions.WorldRegionManager.Region;
+import ru.craftlogic.regions.WorldRegionManager.RegionAbility;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Carries any number of regions of one dimension. Owners and members are written once per packet,
+ * with their profile properties, into a profile table and referenced by index, abilities are sent as bitmasks. Only {@link RegionFlag#isSynced() synced}
+ * flags are sent, as a bitset in registration order.
+ */
+public class MessageRegions extends AdvancedMessage {
+    private int dimension;
+    private List<Entry> regions = new ArrayList<>();
+
+    public MessageRegions() {}
+
+    public MessageRegions(int dimension, Collection<Region> regions) {
+        this.dimension = dimension;
+        for (Region region : regions) {
+            this.regions.add(region.getPayload());
+        }
+    }
+
+    @Override
+    public AdvancedNetwork getNetwork() {
+        return CraftRegions.NETWORK;
+    }
+
+    @Override
+    protected void read(AdvancedBuffer buf) throws IOException {
+        this.dimension = buf.readVarInt();
+        GameProfile[] profiles = new GameProfile[buf.readVarInt()];
+        for (int i = 0; i < profiles.length; i++) {
+            profiles[i] = buf.readProfile();
+        }
+        int count = buf.readVarInt();
+        this.regions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UUID id = buf.readUniqueId();
+            BlockPos start = buf.readBlockPos();
+            BlockPos end = buf.readBlockPos();
+            long flags = buf.readVarLong();
+            GameProfile owner = profiles[buf.readVarInt()];
+            int m = buf.readVarInt();
+            Map<GameProfile, Integer> members = new HashMap<>(m);
+            for (int j = 0; j < m; j++) {
+                GameProfile member = profiles[buf.readVarInt()];
+                members.put(member, buf.readVarInt());
+            }
+            this.regions.add(new Entry(id, start, end, owner, members, flags));
+        }
+    }
+
+    @Override
+    protected void write(AdvancedBuffer buf) throws IOException {
+        List<GameProfile> profiles = new ArrayList<>();
+        Map<UUID, Integer> indices = new HashMap<>();
+        for (Entry entry : regions) {
+            indexProfile(profiles, indices, entry.owner);
+            for (GameProfile member : entry.members.keySet()) {
+                indexProfile(profiles, indices, member);
+            }
+        }
+        buf.writeVarInt(dimension);
+        buf.writeVarInt(profiles.size());
+        for (GameProfile profile : profiles) {
+            buf.writeProfile(profile);
+        }
+        buf.writeVarInt(regions.size());
+        for (Entry entry : regions) {
+            buf.writeBytes(entry.body);
+            buf.writeVarInt(indices.get(entry.owner.getId()));
+            buf.writeVarInt(entry.members.size());
+            for (Map.Entry<GameProfile, Integer> member : entry.members.entrySet()) {
+                buf.writeVarInt(indices.get(member.getKey().getId()));
+                buf.writeVarInt(member.getValue());
+            }
+        }
+    }
+
+    private static void indexProfile(List<GameProfile> profiles, Map<UUID, Integer> indices, GameProfile profile) {
+        if (!indices.containsKey(profile.getId())) {
+            indices.put(profile.getId(), profiles.size());
+            profiles.add(profile);
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public List<Entry> getRegions() {
+        return regions;
+    }
+
+    /**
+     * Network form of a single region. On the server an entry is built once per region revision
+     * (see {@link Region#getPayload()}): profiles are resolved and the fixed-width part is pre-encoded,
+     * so every further recipient only costs a byte copy.
+     */
+    public static class Entry {
+        private final UUID id;
+        private final BlockPos start, end;
+        private final GameProfile owner;
+        private final Map<GameProfile, Integer> members;
+        private final long flags;
+        private final int revision;
+        private final byte[] body;
+
+        public Entry(UUID id, BlockPos start, BlockPos end, GameProfile owner, Map<GameProfile, Integer> members, long flags) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.owner = owner;
+            this.members = members;
+            this.flags = flags;
+            this.revision = -1;
+            this.body = null;
+        }
+
+        public Entry(Server server, Region region) {
+            PlayerManager playerManager = server.getPlayerManager();
+            this.id = region.getId();
+            this.start = region.getStart().getPos();
+            this.end = region.getEnd().getPos();
+            this.owner = resolveProfile(playerManager, region.getOwner());
+            this.members = new HashMap<>();
+            for (UUID m : region.getMembers()) {
+                this.members.put(resolveProfile(playerManager, m), region.getMemberMask(m));
+            }
+            this.flags = region.getFlags() & RegionFlag.getSynced();
+            this.revision = region.getRevision();
+            PacketBuffer buf = new PacketBuffer(Unpooled.buffer(41));
+            buf.writeUniqueId(this.id);
+            buf.writeBlockPos(this.start);
+            buf.writeBlockPos(this.end);
+            buf.writeVarLong(this.flags);
+            this.body = new byte[buf.readableBytes()];
+            buf.readBytes(this.body);
+        }
+
+        private static GameProfile resolveProfile(PlayerManager playerManager, UUID id) {
+            OfflinePlayer player = playerManager.getOffline(id);
+            return player == null ? new GameProfile(id, null) : player.getProfile();
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public GameProfile getOwner() {
+            return owner;
+        }
+
+        public Set<GameProfile> getMembers() {
+            return members.keySet();
+        }
+
+        public Set<RegionAbility> getAbilities(GameProfile id) {
+            return RegionAbility.fromMask(members.getOrDefault(id, 0));
+        }
+
+        public BlockPos getStart() {
+            return start;
+        }
+
+        public BlockPos getEnd() {
+            return end;
+        }
+
+        public boolean is(RegionFlag flag) {
+            return flag.get(flags);
+        }
+
+        public boolean isPvP() {
+            return is(RegionFlag.PVP);
+        }
+    }
+}
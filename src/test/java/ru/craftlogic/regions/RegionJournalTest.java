@@ -0,0 +1,147 @@
+package ru.craftlogic.regions;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RegionJournalTest {
+    private Path dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("region-journal");
+    }
+
+    @After
+    public void deleteDir() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static List<UUID> ids(int count) {
+        List<UUID> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new UUID(0, i + 1));
+        }
+        return result;
+    }
+
+    private List<String> replay(long after) throws IOException {
+        List<String> result = new ArrayList<>();
+        new RegionJournal(dir).replay(after, new RegionJournal.Handler() {
+            @Override
+            public void update(UUID id, JsonReader region) throws IOException {
+                region.beginObject();
+                result.add("update " + id + " " + region.nextName() + "=" + region.nextString());
+                while (region.hasNext()) {
+                    region.skipValue();
+                }
+                region.endObject();
+            }
+
+            @Override
+            public void delete(UUID id) {
+                result.add("delete " + id);
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void replaysEntriesNewerThanTheSnapshotInOrder() throws IOException {
+        List<UUID> ids = ids(3);
+        RegionJournal journal = new RegionJournal(dir);
+        for (UUID id : ids) {
+            assertTrue(journal.appendDelete(id));
+        }
+        journal.close();
+        assertEquals(3, journal.getSequence());
+
+        assertEquals(Arrays.asList("delete " + ids.get(0), "delete " + ids.get(1), "delete " + ids.get(2)), replay(0));
+        assertEquals(Collections.singletonList("delete " + ids.get(2)), replay(2));
+        assertTrue(replay(3).isEmpty());
+    }
+
+    @Test
+    public void replayContinuesTheSequence() throws IOException {
+        RegionJournal journal = new RegionJournal(dir);
+        journal.appendDelete(new UUID(0, 1));
+        journal.appendDelete(new UUID(0, 2));
+        journal.close();
+
+        RegionJournal reopened = new RegionJournal(dir);
+        reopened.replay(1, new RegionJournal.Handler() {
+            @Override
+            public void update(UUID id, JsonReader region) {}
+
+            @Override
+            public void delete(UUID id) {}
+        });
+        assertEquals(2, reopened.getSequence());
+        assertEquals(1, reopened.size());
+        reopened.appendDelete(new UUID(0, 3));
+        reopened.close();
+        assertEquals(3, reopened.getSequence());
+    }
+
+    @Test
+    public void updateHandsTheRegionBodyToTheHandler() throws IOException {
+        UUID id = new UUID(0, 1);
+        Files.write(dir.resolve("regions.journal"), Collections.singletonList(
+            "{\"seq\":1,\"op\":\"update\",\"id\":\"" + id + "\",\"region\":{\"owner\":\"someone\",\"pvp\":true}}"
+        ), StandardCharsets.UTF_8);
+        assertEquals(Collections.singletonList("update " + id + " owner=someone"), replay(0));
+    }
+
+    @Test
+    public void damagedEntriesAreSkipped() throws IOException {
+        UUID id = new UUID(0, 2);
+        RegionJournal journal = new RegionJournal(dir);
+        journal.appendDelete(new UUID(0, 1));
+        journal.close();
+        Files.write(dir.resolve("regions.journal"), Arrays.asList(
+            "{\"seq\":2,\"op\":\"delete\",\"id\":\"not-a-uuid\"}",
+            "{\"seq\":3,\"op\":\"del",
+            "{\"seq\":4,\"op\":\"delete\",\"id\":\"" + id + "\"}"
+        ), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("delete " + new UUID(0, 1), "delete " + id), replay(0));
+    }
+
+    @Test
+    public void truncateDropsOnlySegmentsCoveredBySnapshot() throws IOException {
+        List<UUID> ids = ids(4);
+        RegionJournal journal = new RegionJournal(dir);
+        journal.appendDelete(ids.get(0));
+        journal.appendDelete(ids.get(1));
+        journal.rotate();
+        long firstSnapshot = journal.getSequence();
+        journal.appendDelete(ids.get(2));
+        journal.rotate();
+        long secondSnapshot = journal.getSequence();
+        journal.appendDelete(ids.get(3));
+        journal.close();
+        assertEquals(1, journal.size());
+
+        journal.truncate(firstSnapshot);
+        assertEquals(Arrays.asList("delete " + ids.get(2), "delete " + ids.get(3)), replay(firstSnapshot));
+        assertEquals(Arrays.asList("delete " + ids.get(2), "delete " + ids.get(3)), replay(0));
+
+        journal.truncate(secondSnapshot);
+        assertEquals(Collections.singletonList("delete " + ids.get(3)), replay(secondSnapshot));
+    }
+}
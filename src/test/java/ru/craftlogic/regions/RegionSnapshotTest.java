@@ -0,0 +1,108 @@
+package ru.craftlogic.regions;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RegionSnapshotTest {
+    private static final UUID ALICE = UUID.fromString("00000000-0000-0000-0000-00000000000a");
+    private static final UUID BOB = UUID.fromString("00000000-0000-0000-0000-00000000000b");
+
+    private static RegionStub stub(UUID owner, int minX, int minZ, int maxX, int maxZ) {
+        return new RegionStub(UUID.randomUUID(), owner, minX, minZ, maxX, maxZ);
+    }
+
+    private static RegionSnapshot with(RegionSnapshot snapshot, UUID id, RegionStub stub) {
+        return snapshot.with(Collections.singletonMap(id, stub));
+    }
+
+    @Test
+    public void changesDoNotLeakIntoOlderVersions() {
+        RegionStub a = stub(ALICE, 0, 0, 10, 10);
+        RegionStub b = stub(BOB, 100, 100, 110, 110);
+        RegionSnapshot first = with(RegionSnapshot.EMPTY, a.id, a);
+        RegionSnapshot second = with(first, b.id, b);
+        RegionSnapshot third = with(second, a.id, null);
+
+        assertEquals(1, first.size());
+        assertNull(first.getRegion(b.id));
+        assertNull(first.getRegion(105, 105));
+        assertTrue(first.getPlayerRegions(BOB).isEmpty());
+
+        assertEquals(2, second.size());
+        assertSame(a, second.getRegion(5, 5));
+        assertSame(b, second.getRegion(b.id));
+
+        assertEquals(1, third.size());
+        assertNull(third.getRegion(a.id));
+        assertNull(third.getRegion(5, 5));
+        assertTrue(third.getPlayerRegions(ALICE).isEmpty());
+        assertSame(a, second.getRegion(a.id));
+        assertEquals(Collections.singletonList(a), second.getPlayerRegions(ALICE));
+
+        assertTrue(first.getVersion() < second.getVersion() && second.getVersion() < third.getVersion());
+        assertEquals(0, RegionSnapshot.EMPTY.size());
+    }
+
+    @Test
+    public void regionsSpanningShardsAreFoundInEach() {
+        RegionStub wide = stub(ALICE, 500, -20, 1100, 20);
+        RegionSnapshot snapshot = with(RegionSnapshot.EMPTY, wide.id, wide);
+        assertSame(wide, snapshot.getRegion(500, 0));
+        assertSame(wide, snapshot.getRegion(800, -20));
+        assertSame(wide, snapshot.getRegion(1100, 20));
+        assertNull(snapshot.getRegion(1101, 0));
+        assertEquals(Collections.singletonList(wide), snapshot.getRegions(0, -600, 2000, 600));
+
+        RegionSnapshot removed = with(snapshot, wide.id, null);
+        assertNull(removed.getRegion(800, 0));
+        assertTrue(removed.getRegions(0, -600, 2000, 600).isEmpty());
+    }
+
+    @Test
+    public void ownerTransferMovesTheRegionBetweenOwners() {
+        RegionStub region = stub(ALICE, 0, 0, 10, 10);
+        RegionSnapshot before = with(RegionSnapshot.EMPTY, region.id, region);
+        RegionSnapshot after = with(before, region.id, region.withOwner(BOB));
+        assertTrue(after.getPlayerRegions(ALICE).isEmpty());
+        assertEquals(1, after.getPlayerRegions(BOB).size());
+        assertEquals(BOB, after.getOwner(5, 5));
+        assertEquals(ALICE, before.getOwner(5, 5));
+    }
+
+    @Test
+    public void manyRegionsMatchTheirStubs() {
+        Random random = new Random(3);
+        Map<UUID, RegionStub> stubs = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            int x = i * 40, z = random.nextInt(5000);
+            RegionStub stub = stub(random.nextBoolean() ? ALICE : BOB, x, z, x + 30, z + 30);
+            stubs.put(stub.id, stub);
+        }
+        RegionSnapshot full = RegionSnapshot.of(7, stubs.values(), Collections.singleton(ALICE));
+        assertEquals(7, full.getVersion());
+        assertEquals(stubs.size(), full.size());
+        assertTrue(full.hasOverride(ALICE));
+        assertFalse(full.hasOverride(BOB));
+
+        List<UUID> ids = new ArrayList<>(stubs.keySet());
+        Map<UUID, RegionStub> removals = new HashMap<>();
+        for (UUID id : ids.subList(0, 1000)) {
+            removals.put(id, null);
+        }
+        RegionSnapshot half = full.with(removals);
+        assertEquals(1000, half.size());
+        for (RegionStub stub : stubs.values()) {
+            assertSame(stub, full.getRegion(stub.id));
+            assertSame(stub, full.getRegion(stub.minX + 15, stub.minZ + 15));
+            boolean removed = removals.containsKey(stub.id);
+            assertEquals(removed ? null : stub, half.getRegion(stub.id));
+            assertEquals(removed ? null : stub, half.getRegion(stub.minX, stub.minZ));
+        }
+        int owned = full.getPlayerRegions(ALICE).size() + full.getPlayerRegions(BOB).size();
+        assertEquals(stubs.size(), owned);
+        assertEquals(1000, half.getPlayerRegions(ALICE).size() + half.getPlayerRegions(BOB).size());
+    }
+}
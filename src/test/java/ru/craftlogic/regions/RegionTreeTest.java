@@ -0,0 +1,106 @@
+package ru.craftlogic.regions;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RegionTreeTest {
+    private static final class Entry {
+        final int id, minX, minZ, maxX, maxZ;
+
+        Entry(int id, int minX, int minZ, int maxX, int maxZ) {
+            this.id = id;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+        }
+
+        boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return this.minX <= maxX && this.maxX >= minX && this.minZ <= maxZ && this.maxZ >= minZ;
+        }
+    }
+
+    private static List<Entry> randomEntries(Random random, int count) {
+        List<Entry> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(20000) - 10000, z = random.nextInt(20000) - 10000;
+            result.add(new Entry(i, x, z, x + random.nextInt(200), z + random.nextInt(200)));
+        }
+        return result;
+    }
+
+    private static void assertQueries(RegionTree<Entry> tree, Collection<Entry> entries, Random random) {
+        for (int q = 0; q < 200; q++) {
+            int x = random.nextInt(22000) - 11000, z = random.nextInt(22000) - 11000;
+            int maxX = x + random.nextInt(2000), maxZ = z + random.nextInt(2000);
+            Set<Entry> expected = new HashSet<>();
+            for (Entry entry : entries) {
+                if (entry.intersects(x, z, maxX, maxZ)) {
+                    expected.add(entry);
+                }
+            }
+            List<Entry> actual = tree.query(x, z, maxX, maxZ);
+            assertEquals("duplicates in query result", actual.size(), new HashSet<>(actual).size());
+            assertEquals(expected, new HashSet<>(actual));
+        }
+    }
+
+    @Test
+    public void emptyTreeFindsNothing() {
+        assertTrue(new RegionTree<Entry>().query(-100, -100, 100, 100).isEmpty());
+    }
+
+    @Test
+    public void boundsAreInclusive() {
+        RegionTree<Entry> tree = new RegionTree<>();
+        Entry entry = new Entry(0, 0, 0, 15, 15);
+        tree.insert(entry, 0, 0, 15, 15);
+        assertEquals(Collections.singletonList(entry), tree.query(15, 15, 20, 20));
+        assertEquals(Collections.singletonList(entry), tree.query(-5, -5, 0, 0));
+        assertTrue(tree.query(16, 0, 20, 15).isEmpty());
+    }
+
+    @Test
+    public void queryMatchesLinearScanAfterSplits() {
+        Random random = new Random(1);
+        List<Entry> entries = randomEntries(random, 2000);
+        RegionTree<Entry> tree = new RegionTree<>();
+        for (Entry entry : entries) {
+            tree.insert(entry, entry.minX, entry.minZ, entry.maxX, entry.maxZ);
+        }
+        assertQueries(tree, entries, random);
+    }
+
+    @Test
+    public void queryMatchesLinearScanAfterRemovals() {
+        Random random = new Random(2);
+        List<Entry> entries = randomEntries(random, 2000);
+        RegionTree<Entry> tree = new RegionTree<>();
+        for (Entry entry : entries) {
+            tree.insert(entry, entry.minX, entry.minZ, entry.maxX, entry.maxZ);
+        }
+        Collections.shuffle(entries, random);
+        List<Entry> kept = new ArrayList<>(entries.subList(0, 300));
+        for (Entry entry : entries.subList(300, entries.size())) {
+            assertTrue(tree.remove(entry, entry.minX, entry.minZ, entry.maxX, entry.maxZ));
+        }
+        assertQueries(tree, kept, random);
+        for (Entry entry : kept) {
+            assertTrue(tree.remove(entry, entry.minX, entry.minZ, entry.maxX, entry.maxZ));
+        }
+        assertTrue(tree.query(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void removeOfMissingValueReturnsFalse() {
+        RegionTree<Entry> tree = new RegionTree<>();
+        Entry entry = new Entry(0, 0, 0, 10, 10);
+        tree.insert(entry, 0, 0, 10, 10);
+        assertFalse(tree.remove(new Entry(1, 0, 0, 10, 10), 0, 0, 10, 10));
+        assertTrue(tree.remove(entry, 0, 0, 10, 10));
+        assertFalse(tree.remove(entry, 0, 0, 10, 10));
+    }
+}